@@ -18,6 +18,16 @@
 */
 package controllers.elasticsearch;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import play.modules.elasticsearch.ReindexDatabaseJob;
+import play.modules.elasticsearch.ReindexProgress;
+import play.modules.elasticsearch.deadletter.DeadLetter;
+import play.modules.elasticsearch.deadletter.DeadLetters;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+import play.mvc.Before;
 import play.mvc.Controller;
 
 /**
@@ -32,4 +42,88 @@ public class ElasticSearchAdmin extends Controller {
 		render();
 	}
 
+	/**
+	 * Indexing metrics, as JSON with ?format=json.
+	 */
+	public static void metrics() {
+		final Map<String, Object> metrics = ElasticSearchMetrics.snapshot();
+		if ("json".equals(request.format)) {
+			renderJSON(metrics);
+		}
+		render(metrics);
+	}
+
+	/**
+	 * Progress of the running or last reindex, as JSON with ?format=json.
+	 */
+	public static void reindex() {
+		final ReindexProgress progress = ReindexDatabaseJob.getProgress();
+		if ("json".equals(request.format)) {
+			final Map<String, Object> json = new LinkedHashMap<String, Object>();
+			if (progress != null) {
+				json.put("running", progress.isRunning());
+				json.put("done", progress.getDone());
+				json.put("total", progress.getTotal());
+				json.put("rate", progress.getRate());
+				json.put("eta", progress.getEta());
+				json.put("types", progress.getTypes());
+			}
+			renderJSON(json);
+		}
+		render(progress);
+	}
+
+	/** Number of dead letters shown per page */
+	private static final int PAGE_SIZE = 50;
+
+	/**
+	 * The dead letter pages need the dead letter store.
+	 */
+	@Before(only = { "deadLetters", "replayDeadLetters", "discardDeadLetters" })
+	static void checkDeadLetters() {
+		if (!DeadLetters.isEnabled()) {
+			notFound("The dead letter store is disabled, set elasticsearch.deadLetters.enabled=true");
+		}
+	}
+
+	/**
+	 * Dead letters, as JSON with ?format=json.
+	 * 
+	 * @param type
+	 *            the index type to show, all if empty
+	 * @param page
+	 *            the page, starting at 1
+	 */
+	public static void deadLetters(String type, int page) {
+		type = type == null || type.length() == 0 ? null : type;
+		page = Math.max(1, page);
+		final long count = DeadLetters.count(type);
+		final List<DeadLetter> letters = DeadLetters.list(type, (page - 1) * PAGE_SIZE, PAGE_SIZE);
+		if ("json".equals(request.format)) {
+			renderJSON(letters);
+		}
+		final long pages = Math.max(1, (count + PAGE_SIZE - 1) / PAGE_SIZE);
+		render(type, page, pages, count, letters);
+	}
+
+	/**
+	 * Replays the dead letters of a type, or all of them.
+	 */
+	public static void replayDeadLetters(String type) {
+		type = type == null || type.length() == 0 ? null : type;
+		final int replayed = DeadLetters.replay(type, PAGE_SIZE * 10);
+		flash.success("Replayed %s dead letters", replayed);
+		deadLetters(type, 1);
+	}
+
+	/**
+	 * Deletes the dead letters of a type, or all of them, without sending them.
+	 */
+	public static void discardDeadLetters(String type) {
+		type = type == null || type.length() == 0 ? null : type;
+		final int discarded = DeadLetters.discard(type);
+		flash.success("Discarded %s dead letters", discarded);
+		deadLetters(type, 1);
+	}
+
 }
@@ -0,0 +1,181 @@
+package play.modules.elasticsearch.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Level;
+
+import play.Logger;
+import play.db.jpa.Model;
+import play.modules.elasticsearch.annotations.ElasticSearchEmbedded;
+import play.modules.elasticsearch.annotations.ElasticSearchEmbedded.Mode;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+
+/**
+ * Representative models for the benchmarks. The mappers read fields through getters, which Play generates at runtime,
+ * so they are written out here.
+ */
+public final class BenchmarkModels {
+
+	private BenchmarkModels() {
+	}
+
+	/**
+	 * Keeps debug logging from dominating the measurements
+	 */
+	static void quietLogging() {
+		Logger.log4j = org.apache.log4j.Logger.getLogger("play");
+		Logger.log4j.setLevel(Level.WARN);
+	}
+
+	/** A model with simple fields only */
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class FlatModel extends Model {
+		public String title;
+		public String description;
+		public int views;
+		public double rating;
+		public boolean published;
+		public Date created;
+
+		public String getTitle() {
+			return title;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public int getViews() {
+			return views;
+		}
+
+		public double getRating() {
+			return rating;
+		}
+
+		public boolean getPublished() {
+			return published;
+		}
+
+		public Date getCreated() {
+			return created;
+		}
+	}
+
+	/** An embedded object */
+	public static class Address {
+		public String street;
+		public String city;
+		public String zip;
+
+		public String getStreet() {
+			return street;
+		}
+
+		public String getCity() {
+			return city;
+		}
+
+		public String getZip() {
+			return zip;
+		}
+	}
+
+	/** A model with an embedded object */
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class EmbeddedModel extends Model {
+		public String name;
+
+		@ElasticSearchEmbedded
+		public Address address;
+
+		public String getName() {
+			return name;
+		}
+
+		public Address getAddress() {
+			return address;
+		}
+	}
+
+	/** An element of a nested collection */
+	public static class LineItem {
+		public String product;
+		public int quantity;
+
+		public String getProduct() {
+			return product;
+		}
+
+		public int getQuantity() {
+			return quantity;
+		}
+	}
+
+	/** A model with collections, one of them nested */
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class NestedModel extends Model {
+		public String customer;
+		public List<String> tags;
+
+		@ElasticSearchEmbedded(mode = Mode.nested)
+		public List<LineItem> items;
+
+		public String getCustomer() {
+			return customer;
+		}
+
+		public List<String> getTags() {
+			return tags;
+		}
+
+		public List<LineItem> getItems() {
+			return items;
+		}
+	}
+
+	static FlatModel flat(long id) {
+		FlatModel model = new FlatModel();
+		model.id = id;
+		model.title = "Benchmark title " + id;
+		model.description = "A somewhat longer description of the benchmarked model, as it would be found in a real application";
+		model.views = 1234;
+		model.rating = 4.5;
+		model.published = true;
+		model.created = new Date(1400000000000L);
+		return model;
+	}
+
+	static EmbeddedModel embedded(long id) {
+		EmbeddedModel model = new EmbeddedModel();
+		model.id = id;
+		model.name = "Customer " + id;
+		model.address = new Address();
+		model.address.street = "1 Main Street";
+		model.address.city = "Springfield";
+		model.address.zip = "12345";
+		return model;
+	}
+
+	static NestedModel nested(long id) {
+		NestedModel model = new NestedModel();
+		model.id = id;
+		model.customer = "Customer " + id;
+		model.tags = new ArrayList<String>();
+		model.items = new ArrayList<LineItem>();
+		for (int i = 0; i < 10; i++) {
+			model.tags.add("tag" + i);
+			LineItem item = new LineItem();
+			item.product = "Product " + i;
+			item.quantity = i + 1;
+			model.items.add(item);
+		}
+		return model;
+	}
+
+}
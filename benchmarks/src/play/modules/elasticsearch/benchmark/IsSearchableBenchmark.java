@@ -0,0 +1,94 @@
+package play.modules.elasticsearch.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import play.Logger;
+import play.db.Model;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+import play.modules.elasticsearch.mapping.MappingUtil;
+
+/**
+ * Measures the cost the plugin adds to saving an entity which is not searchable, which is the most common JPA event in most applications.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IsSearchableBenchmark {
+
+	/** A model without @ElasticSearchable */
+	public static class PlainModel implements Model {
+
+		public void _save() {
+		}
+
+		public void _delete() {
+		}
+
+		public Object _key() {
+			return Long.valueOf(1);
+		}
+
+	}
+
+	/** A searchable model */
+	@ElasticSearchable
+	public static class SearchableModel extends PlainModel {
+
+	}
+
+	/** A model inheriting @ElasticSearchable a few levels up */
+	public static class DeepSearchableModel extends SearchableModel {
+
+	}
+
+	private ElasticSearchPlugin plugin;
+	private PlainModel plainModel;
+
+	@Setup
+	public void setUp() {
+		// Keep debug logging from dominating the measurement
+		Logger.log4j = org.apache.log4j.Logger.getLogger("play");
+		Logger.log4j.setLevel(Level.WARN);
+
+		plugin = new ElasticSearchPlugin();
+		plainModel = new PlainModel();
+	}
+
+	@Benchmark
+	public void nonSearchableSave() {
+		plugin.onEvent("JPASupport.objectUpdated", plainModel);
+	}
+
+	@Benchmark
+	public void nonSearchableSaveColdCache() {
+		MappingUtil.clearCache();
+		plugin.onEvent("JPASupport.objectUpdated", plainModel);
+	}
+
+	@Benchmark
+	public boolean isSearchableNotAnnotated() {
+		return MappingUtil.isSearchable(PlainModel.class);
+	}
+
+	@Benchmark
+	public boolean isSearchableInherited() {
+		return MappingUtil.isSearchable(DeepSearchableModel.class);
+	}
+
+}
@@ -0,0 +1,67 @@
+package play.modules.elasticsearch.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.journal.IndexJournal;
+
+/**
+ * Measures appending events to the journal of the LOCAL delivery mode, acknowledged in bulks of 500 like the indexer
+ * does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+	private File directory;
+	private IndexJournal journal;
+	private ElasticSearchIndexEvent event;
+	private int appended;
+
+	@Setup
+	public void setUp() throws IOException {
+		BenchmarkModels.quietLogging();
+
+		directory = File.createTempFile("journal", "");
+		directory.delete();
+		journal = new IndexJournal(directory, 64 * 1024 * 1024);
+		event = new ElasticSearchIndexEvent(BenchmarkModels.flat(123456), Type.INDEX);
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public void append() throws IOException {
+		journal.append(event);
+		if (++appended == 500) {
+			journal.acknowledge(appended, true);
+			appended = 0;
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package play.modules.elasticsearch.benchmark;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import play.db.Model;
+import play.modules.elasticsearch.adapter.ElasticSearchAdapter;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.mapping.impl.DefaultMapperFactory;
+
+/**
+ * Measures serializing models into documents and inflating them from document sources, for flat models, embedded
+ * objects and nested collections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+
+	@Param({ "flat", "embedded", "nested" })
+	public String model;
+
+	private ModelMapper<Model> mapper;
+	private Model instance;
+	private Map<String, Object> source;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws IOException {
+		BenchmarkModels.quietLogging();
+
+		if ("flat".equals(model)) {
+			instance = BenchmarkModels.flat(1);
+		} else if ("embedded".equals(model)) {
+			instance = BenchmarkModels.embedded(1);
+		} else {
+			instance = BenchmarkModels.nested(1);
+		}
+		mapper = (ModelMapper<Model>) new DefaultMapperFactory().getMapper(instance.getClass());
+		source = XContentHelper.convertToMap(addModel(), true).v2();
+	}
+
+	@Benchmark
+	public BytesReference addModel() throws IOException {
+		return ElasticSearchAdapter.buildSource(mapper, instance).bytes();
+	}
+
+	@Benchmark
+	public Model createModel() {
+		return mapper.createModel(source);
+	}
+
+}
@@ -0,0 +1,95 @@
+package play.modules.elasticsearch.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.adapter.ElasticSearchAdapter;
+import play.modules.elasticsearch.benchmark.BenchmarkModels.FlatModel;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.search.SearchResults;
+import play.modules.elasticsearch.transformer.MapperTransformer;
+import play.modules.elasticsearch.transformer.SimpleTransformer;
+
+/**
+ * Compares the transformers which do not hit the database on canned search responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerBenchmark {
+
+	@Param({ "10", "100" })
+	public int hits;
+
+	private String typeName;
+	private String[] ids;
+	private BytesReference[] sources;
+	private SearchResponse response;
+
+	@Setup
+	public void setUp() throws IOException {
+		BenchmarkModels.quietLogging();
+
+		ModelMapper<FlatModel> mapper = ElasticSearchPlugin.getMapper(FlatModel.class);
+		typeName = mapper.getTypeName();
+		ids = new String[hits];
+		sources = new BytesReference[hits];
+		for (int i = 0; i < hits; i++) {
+			FlatModel model = BenchmarkModels.flat(i);
+			ids[i] = mapper.getDocumentId(model);
+			sources[i] = ElasticSearchAdapter.buildSource(mapper, model).bytes();
+		}
+	}
+
+	/**
+	 * Hits cache their parsed source, so every invocation gets fresh ones
+	 */
+	@Setup(Level.Invocation)
+	public void setUpResponse() {
+		InternalSearchHit[] searchHits = new InternalSearchHit[hits];
+		for (int i = 0; i < hits; i++) {
+			searchHits[i] = new InternalSearchHit(i, ids[i], new StringText(typeName), Collections.<String, SearchHitField> emptyMap());
+			searchHits[i].sourceRef(sources[i]);
+			searchHits[i].score(1f);
+		}
+		InternalSearchResponse internal = new InternalSearchResponse(new InternalSearchHits(searchHits, hits, 1f), null, null, null, false, null);
+		response = new SearchResponse(internal, null, 1, 1, 1, new ShardSearchFailure[0]);
+	}
+
+	@Benchmark
+	public SearchResults<FlatModel> simpleTransformer() {
+		return new SimpleTransformer<FlatModel>().toSearchResults(response, FlatModel.class);
+	}
+
+	@Benchmark
+	public SearchResults<FlatModel> mapperTransformer() {
+		return new MapperTransformer<FlatModel>().toSearchResults(response, FlatModel.class);
+	}
+
+}
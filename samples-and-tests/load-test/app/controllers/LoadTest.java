@@ -0,0 +1,30 @@
+package controllers;
+
+import loadtest.LoadGenerator;
+import loadtest.LoadReport;
+import play.mvc.Controller;
+
+/**
+ * Runs a load test and renders its report as JSON. Parameters which are not given are read from conf/application.conf
+ */
+public class LoadTest extends Controller {
+
+	public static void run(String mode, Integer rate, Integer seconds, Integer threads, String mix) throws InterruptedException {
+		LoadGenerator generator = new LoadGenerator(mode == null ? "LOCAL" : mode);
+		if (rate != null) {
+			generator.rate(rate);
+		}
+		if (seconds != null) {
+			generator.seconds(seconds);
+		}
+		if (threads != null) {
+			generator.threads(threads);
+		}
+		if (mix != null) {
+			generator.mix(mix);
+		}
+		LoadReport report = generator.run();
+		renderJSON(report);
+	}
+
+}
@@ -0,0 +1,27 @@
+package jobs;
+
+import loadtest.LoadGenerator;
+import loadtest.LoadReport;
+import play.Logger;
+import play.Play;
+import play.jobs.Job;
+import play.jobs.OnApplicationStart;
+
+/**
+ * Runs the load test for every configured delivery mode when the application starts, if loadtest.autorun=true
+ */
+@OnApplicationStart(async = true)
+public class LoadTestOnStart extends Job {
+
+	@Override
+	public void doJob() throws Exception {
+		if (!Boolean.parseBoolean(Play.configuration.getProperty("loadtest.autorun", "false"))) {
+			return;
+		}
+		for (String mode : Play.configuration.getProperty("loadtest.modes", "LOCAL,SYNCHRONOUS,CUSTOM").split(",")) {
+			LoadReport report = new LoadGenerator(mode.trim()).run();
+			Logger.info("Load test %s", report);
+		}
+	}
+
+}
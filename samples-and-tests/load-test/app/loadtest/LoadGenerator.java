@@ -0,0 +1,368 @@
+package loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import models.LoadTestDocument;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+
+import play.Logger;
+import play.Play;
+import play.libs.Time;
+import play.modules.elasticsearch.ElasticSearchDeliveryMode;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+import play.modules.elasticsearch.metrics.Histogram;
+import play.modules.elasticsearch.metrics.TypeMetrics;
+
+/**
+ * Fires persist, update and delete events at a fixed rate through {@link ElasticSearchPlugin#onEvent(String, Object)}
+ * and measures how the delivery mode keeps up.
+ *
+ * <p>
+ * The generated documents are never persisted, so the numbers describe the indexer only. Runs with the same seed fire
+ * the same sequence of events on each producer thread, with the same document ids. How the threads interleave is up to
+ * the scheduler.
+ */
+public class LoadGenerator {
+
+	/** Numbers the runs of this JVM, document ids include it so runs do not update each other's documents */
+	private static final AtomicLong runs = new AtomicLong();
+
+	private static final String[] CATEGORIES = { "books", "music", "movies", "games", "garden", "tools", "toys", "food" };
+
+	private static final String[] WORDS = { "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "elastic", "search", "play", "index", "event", "document", "mapping", "shard", "replica" };
+
+	private final String mode;
+	private int rate;
+	private int seconds;
+	private int threads;
+	private int[] mix;
+	private int sample;
+	private long seed;
+	private long drainTimeout;
+
+	private final AtomicLong persisted = new AtomicLong();
+	private final AtomicLong updated = new AtomicLong();
+	private final AtomicLong deleted = new AtomicLong();
+	private final AtomicLong late = new AtomicLong();
+
+	/** Probed document ids and the time their persist event was fired, in nanoseconds */
+	private final Map<String, Long> probes = new ConcurrentHashMap<String, Long>();
+
+	/** Time until probed documents were found by a search, in nanoseconds */
+	private final Histogram visible = new Histogram();
+
+	private volatile long heapPeak;
+
+	private volatile boolean running;
+
+	/**
+	 * Creates a load generator with the settings from conf/application.conf
+	 *
+	 * @param mode
+	 *            the delivery mode, LOCAL, SYNCHRONOUS, CUSTOM or any other mode known to
+	 *            {@link ElasticSearchDeliveryMode#valueOf(String)}
+	 */
+	public LoadGenerator(String mode) {
+		this.mode = mode.toUpperCase();
+		rate = Integer.parseInt(Play.configuration.getProperty("loadtest.rate", "1000"));
+		seconds = Integer.parseInt(Play.configuration.getProperty("loadtest.seconds", "30"));
+		threads = Integer.parseInt(Play.configuration.getProperty("loadtest.threads", "1"));
+		sample = Integer.parseInt(Play.configuration.getProperty("loadtest.sample", "50"));
+		seed = Long.parseLong(Play.configuration.getProperty("loadtest.seed", "42"));
+		drainTimeout = TimeUnit.SECONDS.toMillis(Time.parseDuration(Play.configuration.getProperty("loadtest.drainTimeout", "60s")));
+		mix(Play.configuration.getProperty("loadtest.mix", "60,30,10"));
+	}
+
+	public LoadGenerator rate(int rate) {
+		this.rate = rate;
+		return this;
+	}
+
+	public LoadGenerator seconds(int seconds) {
+		this.seconds = seconds;
+		return this;
+	}
+
+	public LoadGenerator threads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Sets the share of persist, update and delete events
+	 *
+	 * @param mix
+	 *            comma separated percentages, e.g. 60,30,10
+	 */
+	public LoadGenerator mix(String mix) {
+		String[] parts = mix.split(",");
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("Expected persist,update,delete percentages but got " + mix);
+		}
+		this.mix = new int[3];
+		for (int i = 0; i < 3; i++) {
+			this.mix[i] = Integer.parseInt(parts[i].trim());
+		}
+		return this;
+	}
+
+	/**
+	 * Runs the load test. Blocks until all events were fired and the delivery mode was drained.
+	 *
+	 * @return the report
+	 */
+	public LoadReport run() throws InterruptedException {
+		ElasticSearchPlugin plugin = Play.plugin(ElasticSearchPlugin.class);
+		ModelMapper<LoadTestDocument> mapper = ElasticSearchPlugin.getMapper(LoadTestDocument.class);
+
+		ElasticSearchDeliveryMode previous = ElasticSearchPlugin.getDeliveryMode();
+		ElasticSearchPlugin.setDeliveryMode(deliveryMode());
+		Logger.info("Load test %s: %d events/s for %ds on %d thread(s)", mode, rate, seconds, threads);
+
+		ElasticSearchMetrics.reset();
+		long[] gcBefore = gc();
+		heapPeak = 0;
+		running = true;
+		Thread sampler = startSampler(mapper);
+
+		try {
+			long start = System.nanoTime();
+			long run = runs.incrementAndGet();
+			CountDownLatch done = new CountDownLatch(threads);
+			for (int i = 0; i < threads; i++) {
+				// Every producer has its own ids, so its sequence does not depend on the other producers
+				new Producer(plugin, new Random(seed + i), (run << 40) + ((long) i << 32), start, done).start();
+			}
+			done.await();
+
+			// Wait for the delivery mode to drain
+			long deadline = System.currentTimeMillis() + drainTimeout;
+			while (ElasticSearchMetrics.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			boolean drained = ElasticSearchMetrics.getQueueDepth() == 0;
+			long elapsed = System.nanoTime() - start;
+
+			// Give the probed documents until the drain timeout to become visible
+			while (!probes.isEmpty() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+
+			return report(mapper, drained, elapsed, gcBefore);
+		} finally {
+			running = false;
+			sampler.join();
+			ElasticSearchPlugin.setDeliveryMode(previous);
+		}
+	}
+
+	private ElasticSearchDeliveryMode deliveryMode() {
+		if ("CUSTOM".equals(mode)) {
+			return ElasticSearchDeliveryMode.createCustomIndexEventHandler(Play.configuration.getProperty("elasticsearch.customIndexEventHandler", "play.modules.elasticsearch.LocalIndexEventHandler"));
+		}
+		return ElasticSearchDeliveryMode.valueOf(mode);
+	}
+
+	private LoadReport report(ModelMapper<LoadTestDocument> mapper, boolean drained, long elapsed, long[] gcBefore) {
+		long[] gcAfter = gc();
+		Histogram ackLag = ElasticSearchMetrics.getLag();
+		TypeMetrics type = ElasticSearchMetrics.type(mapper.getTypeName());
+
+		LoadReport report = new LoadReport();
+		report.mode = mode;
+		report.rate = rate;
+		report.seconds = seconds;
+		report.threads = threads;
+		report.persisted = persisted.get();
+		report.updated = updated.get();
+		report.deleted = deleted.get();
+		report.late = late.get();
+		report.processed = (Long) ElasticSearchMetrics.snapshot().get("events.processed");
+		report.failed = type.getFailed();
+		report.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+		report.drained = drained;
+		report.docsPerSecond = report.processed * 1e9 / elapsed;
+		report.ackLagP50 = millis(ackLag.getPercentile(0.5));
+		report.ackLagP99 = millis(ackLag.getPercentile(0.99));
+		report.ackLagMax = millis(ackLag.getMax());
+		report.visibleSamples = visible.getCount();
+		report.visibleLagP50 = millis(visible.getPercentile(0.5));
+		report.visibleLagP99 = millis(visible.getPercentile(0.99));
+		report.visibleLagMax = millis(visible.getMax());
+		report.visibleMissing = probes.size();
+		report.heapPeakMb = heapPeak / (1024 * 1024);
+		report.heapEndMb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+		report.gcCount = gcAfter[0] - gcBefore[0];
+		report.gcMillis = gcAfter[1] - gcBefore[1];
+		probes.clear();
+		return report;
+	}
+
+	/**
+	 * Starts the thread which samples the heap and searches for the probed documents
+	 */
+	private Thread startSampler(final ModelMapper<LoadTestDocument> mapper) {
+		Thread sampler = new Thread("load-test-sampler") {
+			@Override
+			public void run() {
+				while (running) {
+					heapPeak = Math.max(heapPeak, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+					try {
+						probe(mapper);
+						Thread.sleep(20);
+					} catch (InterruptedException e) {
+						return;
+					} catch (RuntimeException e) {
+						Logger.warn("Load test probe failed: %s", e.getMessage());
+					}
+				}
+			}
+		};
+		sampler.setDaemon(true);
+		sampler.start();
+		return sampler;
+	}
+
+	private void probe(ModelMapper<LoadTestDocument> mapper) {
+		if (probes.isEmpty()) {
+			return;
+		}
+		List<String> pending = new ArrayList<String>(probes.keySet());
+		String[] batch = pending.subList(0, Math.min(500, pending.size())).toArray(new String[0]);
+		SearchResponse response = ElasticSearchPlugin.client().prepareSearch(mapper.getIndexName()).setTypes(mapper.getTypeName())
+				.setQuery(QueryBuilders.idsQuery(mapper.getTypeName()).ids(batch)).setSize(batch.length).setFetchSource(false).execute().actionGet();
+		long now = System.nanoTime();
+		for (SearchHit hit : response.getHits()) {
+			Long fired = probes.remove(hit.getId());
+			if (fired != null) {
+				visible.record(now - fired.longValue());
+			}
+		}
+	}
+
+	/**
+	 * Gets the total number and time of garbage collections
+	 */
+	private static long[] gc() {
+		long[] totals = new long[2];
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			totals[0] += Math.max(0, collector.getCollectionCount());
+			totals[1] += Math.max(0, collector.getCollectionTime());
+		}
+		return totals;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	/**
+	 * Fires its share of the events at a fixed rate
+	 */
+	private class Producer extends Thread {
+
+		private final ElasticSearchPlugin plugin;
+		private final Random random;
+		private final long start;
+		private final CountDownLatch done;
+
+		/** The id of the last document this producer persisted */
+		private long lastId;
+
+		/** Ids of the documents this producer persisted and did not delete yet */
+		private final List<Long> live = new ArrayList<Long>();
+
+		Producer(ElasticSearchPlugin plugin, Random random, long firstId, long start, CountDownLatch done) {
+			super("load-test-producer");
+			this.plugin = plugin;
+			this.random = random;
+			this.lastId = firstId;
+			this.start = start;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				long interval = TimeUnit.SECONDS.toNanos(1) * threads / rate;
+				long events = (long) rate * seconds / threads;
+				for (long i = 0; i < events; i++) {
+					long due = start + i * interval;
+					long wait = due - System.nanoTime();
+					if (wait > 0) {
+						TimeUnit.NANOSECONDS.sleep(wait);
+					} else if (wait < -TimeUnit.SECONDS.toNanos(1)) {
+						late.incrementAndGet();
+					}
+					fire();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				Logger.error(e, "Load test producer failed");
+			} finally {
+				done.countDown();
+			}
+		}
+
+		private void fire() {
+			int kind = random.nextInt(mix[0] + mix[1] + mix[2]);
+			if (kind < mix[0] || live.isEmpty()) {
+				LoadTestDocument document = document(++lastId);
+				live.add(document.id);
+				if (persisted.incrementAndGet() % sample == 0) {
+					probes.put(String.valueOf(document.id), Long.valueOf(System.nanoTime()));
+				}
+				plugin.onEvent("JPASupport.objectPersisted", document);
+			} else if (kind < mix[0] + mix[1]) {
+				LoadTestDocument document = document(live.get(random.nextInt(live.size())));
+				updated.incrementAndGet();
+				plugin.onEvent("JPASupport.objectUpdated", document);
+			} else {
+				LoadTestDocument document = document(live.remove(random.nextInt(live.size())));
+				probes.remove(String.valueOf(document.id));
+				deleted.incrementAndGet();
+				plugin.onEvent("JPASupport.objectDeleted", document);
+			}
+		}
+
+		private LoadTestDocument document(Long id) {
+			LoadTestDocument document = new LoadTestDocument();
+			document.id = id;
+			document.title = words(4);
+			document.body = words(40);
+			document.category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+			document.quantity = random.nextInt(1000);
+			document.price = random.nextInt(100000) / 100d;
+			document.created = new Date();
+			return document;
+		}
+
+		private String words(int count) {
+			StringBuilder words = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				if (i > 0) {
+					words.append(' ');
+				}
+				words.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			return words.toString();
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package loadtest;
+
+/**
+ * Outcome of a load test run. Latencies are in milliseconds.
+ */
+public class LoadReport {
+
+	/** The delivery mode */
+	public String mode;
+
+	/** Configured events per second */
+	public int rate;
+
+	/** Configured duration in seconds */
+	public int seconds;
+
+	/** Producer threads */
+	public int threads;
+
+	/** Events fired, by kind */
+	public long persisted;
+	public long updated;
+	public long deleted;
+
+	/** Events the producers fired more than a second behind schedule, e.g. because the delivery mode blocks */
+	public long late;
+
+	/** Events processed by the index action */
+	public long processed;
+
+	/** Documents which failed to index */
+	public long failed;
+
+	/** Time from the first event until the delivery mode was drained */
+	public long elapsedMillis;
+
+	/** False if the delivery mode did not drain within the drain timeout */
+	public boolean drained;
+
+	/** Sustained throughput, processed events per second until drained */
+	public double docsPerSecond;
+
+	/** Time from the event to the acknowledgement by Elastic Search */
+	public double ackLagP50;
+	public double ackLagP99;
+	public double ackLagMax;
+
+	/** Time from the event until the document is found by a search */
+	public long visibleSamples;
+	public double visibleLagP50;
+	public double visibleLagP99;
+	public double visibleLagMax;
+
+	/** Probed documents which did not become visible before the end of the run */
+	public long visibleMissing;
+
+	/** Heap usage in megabytes */
+	public long heapPeakMb;
+	public long heapEndMb;
+
+	/** Garbage collections during the run and their total time */
+	public long gcCount;
+	public long gcMillis;
+
+	@Override
+	public String toString() {
+		return String.format("%s: %.0f docs/s (%d processed, %d failed, %d late, drained=%s), ack lag p50 %.1fms p99 %.1fms, visible lag p50 %.1fms p99 %.1fms max %.1fms (%d missing), heap peak %dMB, %d GCs in %dms",
+				mode, docsPerSecond, processed, failed, late, drained, ackLagP50, ackLagP99, visibleLagP50, visibleLagP99, visibleLagMax, visibleMissing, heapPeakMb, gcCount, gcMillis);
+	}
+
+}
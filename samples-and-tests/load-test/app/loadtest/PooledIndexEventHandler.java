@@ -0,0 +1,29 @@
+package loadtest;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import play.Play;
+import play.modules.elasticsearch.ElasticSearchIndexAction;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.IndexEventHandler;
+
+/**
+ * Custom delivery mode of the load test, runs the index action on a fixed thread pool. Configure the pool size with
+ * loadtest.custom.threads
+ */
+public class PooledIndexEventHandler implements IndexEventHandler {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(Integer.parseInt(Play.configuration.getProperty("loadtest.custom.threads", "4")));
+
+	@Override
+	public void handle(final ElasticSearchIndexEvent event) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				new ElasticSearchIndexAction().invoke(event);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,34 @@
+package models;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+
+import play.db.jpa.Model;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+
+/**
+ * Document fired by the load generator. Instances are never persisted, their id is assigned by the generator.
+ */
+@Entity
+@ElasticSearchable
+public class LoadTestDocument extends Model {
+
+	public String title;
+
+	public String body;
+
+	public String category;
+
+	public int quantity;
+
+	public double price;
+
+	public Date created;
+
+	@Override
+	public String toString() {
+		return "LoadTestDocument [id=" + id + ", title=" + title + "]";
+	}
+
+}
@@ -0,0 +1,29 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+
+import play.db.jpa.Model;
+import play.modules.elasticsearch.annotations.ElasticSearchEmbedded;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+
+@ElasticSearchable
+@Entity
+public class Offer extends Model {
+
+	public String name;
+
+	@ManyToOne(fetch = FetchType.LAZY)
+	@ElasticSearchEmbedded(fields = "name")
+	public Supplier supplier;
+
+	@ManyToMany
+	@ElasticSearchEmbedded(fields = "name")
+	public List<Product> products = new ArrayList<Product>();
+
+}
@@ -0,0 +1,12 @@
+package models;
+
+import javax.persistence.Entity;
+
+import play.db.jpa.Model;
+
+@Entity
+public class Supplier extends Model {
+
+	public String name;
+
+}
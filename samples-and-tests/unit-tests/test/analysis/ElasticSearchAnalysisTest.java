@@ -6,6 +6,7 @@ import org.elasticsearch.common.settings.Settings;
 import org.junit.Before;
 import org.junit.Test;
 
+import play.modules.elasticsearch.ElasticSearch;
 import play.modules.elasticsearch.ElasticSearchPlugin;
 import play.test.Fixtures;
 import play.test.UnitTest;
@@ -19,6 +20,7 @@ public class ElasticSearchAnalysisTest extends UnitTest {
 	public void setUp(){
 		
 		Fixtures.deleteDatabase();
+		ElasticSearch.resetAll();
 	    Fixtures.loadModels("analysis-data.yml");
 		
 		adminClient = ElasticSearchPlugin.client().admin();
@@ -0,0 +1,73 @@
+package mapping;
+
+import java.util.List;
+
+import models.Offer;
+import models.Product;
+import models.Supplier;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import play.db.jpa.JPA;
+import play.modules.elasticsearch.mapping.AssociationPrefetcher;
+import play.test.Fixtures;
+import play.test.UnitTest;
+
+public class AssociationPrefetcherTest extends UnitTest {
+
+	@Before
+	public void setUp() {
+		Fixtures.deleteDatabase();
+	}
+
+	@Test
+	public void testAssociationsOfAllModelsAreLoadedAtOnce() {
+		for (int i = 0; i < 3; i++) {
+			Supplier supplier = new Supplier();
+			supplier.name = "supplier " + i;
+			supplier.save();
+			Product product = new Product();
+			product.name = "product " + i;
+			product.save();
+			Offer offer = new Offer();
+			offer.name = "offer " + i;
+			offer.supplier = supplier;
+			offer.products.add(product);
+			offer.save();
+		}
+		JPA.em().flush();
+		JPA.em().clear();
+
+		List<Offer> offers = Offer.findAll();
+		assertEquals(3, offers.size());
+		for (Offer offer : offers) {
+			assertFalse(Hibernate.isInitialized(offer.supplier));
+			assertFalse(Hibernate.isInitialized(offer.products));
+		}
+
+		Statistics statistics = ((Session) JPA.em().getDelegate()).getSessionFactory().getStatistics();
+		boolean enabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		statistics.clear();
+		try {
+			AssociationPrefetcher.prefetch(JPA.em(), offers);
+
+			// One query for the products of all offers and one for their suppliers
+			assertEquals(2, statistics.getPrepareStatementCount());
+		} finally {
+			statistics.setStatisticsEnabled(enabled);
+		}
+
+		for (Offer offer : offers) {
+			assertTrue(Hibernate.isInitialized(offer.supplier));
+			assertTrue(Hibernate.isInitialized(offer.products));
+			assertEquals(1, offer.products.size());
+			assertTrue(offer.supplier.name.startsWith("supplier "));
+		}
+	}
+
+}
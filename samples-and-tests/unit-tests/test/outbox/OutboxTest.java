@@ -0,0 +1,96 @@
+package outbox;
+
+import models.Product;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import play.db.jpa.JPA;
+import play.db.jpa.JPAPlugin;
+import play.modules.elasticsearch.ElasticSearch;
+import play.modules.elasticsearch.ElasticSearchDeliveryMode;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.outbox.OutboxRelayJob;
+import play.test.Fixtures;
+import play.test.UnitTest;
+
+public class OutboxTest extends UnitTest {
+
+	private ElasticSearchDeliveryMode previous;
+
+	@Before
+	public void setUp() {
+		Fixtures.deleteDatabase();
+		ElasticSearch.resetAll();
+		previous = ElasticSearchPlugin.getDeliveryMode();
+		ElasticSearchPlugin.setDeliveryMode(ElasticSearchDeliveryMode.OUTBOX);
+	}
+
+	@After
+	public void tearDown() {
+		ElasticSearchPlugin.setDeliveryMode(previous);
+	}
+
+	@Test
+	public void testCommittedEntriesAreRelayed() {
+		Product product = new Product();
+		product.name = "outbox";
+		product.save();
+		assertEquals(1, countEntries());
+		JPAPlugin.closeTx(false);
+		JPAPlugin.startTx(false);
+
+		assertEquals(1, new OutboxRelayJob().relay());
+		assertEquals(0, countEntries());
+		assertTrue(exists(product));
+
+		product = Product.findById(product.id);
+		product.delete();
+		JPAPlugin.closeTx(false);
+		JPAPlugin.startTx(false);
+
+		assertEquals(1, new OutboxRelayJob().relay());
+		assertFalse(exists(product));
+	}
+
+	@Test
+	public void testRolledBackEntriesAreDropped() {
+		Product product = new Product();
+		product.name = "outbox";
+		product.save();
+		JPAPlugin.closeTx(true);
+		JPAPlugin.startTx(false);
+
+		assertEquals(0, countEntries());
+		assertEquals(0, new OutboxRelayJob().relay());
+	}
+
+	@Test
+	public void testEntriesOfOneDocumentAreSentOnce() {
+		Product product = new Product();
+		product.name = "first";
+		product.save();
+		product.name = "second";
+		product.save();
+		assertEquals(2, countEntries());
+		JPAPlugin.closeTx(false);
+		JPAPlugin.startTx(false);
+
+		assertEquals(2, new OutboxRelayJob().relay());
+		assertEquals(0, countEntries());
+		assertTrue(exists(product));
+	}
+
+	private static long countEntries() {
+		return ((Number) JPA.em().createQuery("select count(e) from ElasticSearchOutboxEntry e").getSingleResult()).longValue();
+	}
+
+	private static boolean exists(Product product) {
+		ModelMapper<Product> mapper = ElasticSearchPlugin.getMapper(Product.class);
+		return ElasticSearchPlugin.client().prepareGet(mapper.getIndexName(), mapper.getTypeName(), mapper.getDocumentId(product)).execute().actionGet()
+				.isExists();
+	}
+
+}
@@ -0,0 +1,140 @@
+package play.modules.elasticsearch;
+
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+
+/**
+ * Bulk size and number of bulk requests in flight of the indexer, adapted to how the cluster copes.
+ *
+ * <p>
+ * Limits grow additively while bulks are full and answered within the target latency: first the bulk size by the
+ * minimum size per bulk, then, at the maximum size, the concurrency by one. When Elastic Search rejects writes
+ * (429/503), a bulk fails for a retryable reason or is slower than the target latency, both limits are halved. Bulks
+ * which were sent before the last decrease do not decrease them again, so one overload halves the limits once.
+ */
+public class AdaptiveBulkLimit {
+
+	/** Smallest bulk size, also the step by which it grows */
+	private final int minBulkSize;
+
+	/** Largest bulk size */
+	private final int maxBulkSize;
+
+	/** Largest number of bulk requests in flight */
+	private final int maxConcurrency;
+
+	/** Bulks slower than this are a sign of overload, in milliseconds */
+	private final long targetLatency;
+
+	/** Current bulk size */
+	private int bulkSize;
+
+	/** Current number of bulk requests allowed in flight */
+	private int concurrency = 1;
+
+	/** Number of bulk requests in flight */
+	private int inFlight;
+
+	/** The time of the last decrease, in nanoseconds */
+	private long decreased = System.nanoTime();
+
+	/**
+	 * Instantiates a new adaptive bulk limit, starting with one bulk request in flight.
+	 *
+	 * @param minBulkSize
+	 *            smallest bulk size, also the step by which it grows
+	 * @param initialBulkSize
+	 *            bulk size to start with
+	 * @param maxBulkSize
+	 *            largest bulk size
+	 * @param maxConcurrency
+	 *            largest number of bulk requests in flight
+	 * @param targetLatency
+	 *            bulks slower than this are a sign of overload, in milliseconds
+	 */
+	public AdaptiveBulkLimit(int minBulkSize, int initialBulkSize, int maxBulkSize, int maxConcurrency, long targetLatency) {
+		this.minBulkSize = Math.max(1, minBulkSize);
+		this.maxBulkSize = Math.max(this.minBulkSize, maxBulkSize);
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.targetLatency = targetLatency;
+		this.bulkSize = Math.min(this.maxBulkSize, Math.max(this.minBulkSize, initialBulkSize));
+		publish();
+	}
+
+	/**
+	 * Waits until another bulk request may be sent
+	 *
+	 * @return the time the bulk request is sent at, to pass to {@link #completed}
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public synchronized long acquire() throws InterruptedException {
+		while (inFlight >= concurrency) {
+			wait();
+		}
+		inFlight++;
+		publish();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Waits until no bulk request is in flight
+	 *
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (inFlight > 0) {
+			wait();
+		}
+	}
+
+	/**
+	 * Adapts the limits to the outcome of a bulk request and frees its slot
+	 *
+	 * @param started
+	 *            the time returned by {@link #acquire()}
+	 * @param size
+	 *            the number of events in the bulk
+	 * @param rejected
+	 *            the number of events which failed for a retryable reason
+	 */
+	public synchronized void completed(long started, int size, int rejected) {
+		long now = System.nanoTime();
+		long latency = (now - started) / 1000000;
+		inFlight--;
+		if (rejected > 0 || latency > targetLatency) {
+			if (started > decreased) {
+				bulkSize = Math.max(minBulkSize, bulkSize / 2);
+				concurrency = Math.max(1, concurrency / 2);
+				decreased = now;
+				ElasticSearchMetrics.bulkLimitDecreased();
+			}
+		} else if (size >= bulkSize) {
+			// There is a backlog, grow the bulks first and the concurrency once they are at their maximum
+			if (bulkSize < maxBulkSize) {
+				bulkSize = Math.min(maxBulkSize, bulkSize + minBulkSize);
+			} else if (concurrency < maxConcurrency) {
+				concurrency++;
+			}
+		}
+		publish();
+		notifyAll();
+	}
+
+	public synchronized int getBulkSize() {
+		return bulkSize;
+	}
+
+	public synchronized int getConcurrency() {
+		return concurrency;
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	private void publish() {
+		ElasticSearchMetrics.recordBulkLimits(bulkSize, concurrency, inFlight);
+	}
+
+}
@@ -0,0 +1,19 @@
+package play.modules.elasticsearch;
+
+import java.util.List;
+
+/**
+ * An {@link IndexEventHandler} which can deliver a batch of events at once, e.g. all events of a JPA transaction.
+ * Handlers which do not implement it receive the events of a batch one by one.
+ */
+public interface BulkIndexEventHandler extends IndexEventHandler {
+
+	/**
+	 * Handles a batch of events
+	 * 
+	 * @param events
+	 *            the events, in the order they happened
+	 */
+	public void handle(List<ElasticSearchIndexEvent> events);
+
+}
@@ -0,0 +1,114 @@
+package play.modules.elasticsearch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Properties;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+import play.Logger;
+import play.Play;
+import play.jobs.Job;
+import play.modules.elasticsearch.annotations.ElasticSearchModifiedAt;
+
+/**
+ * Sends the models modified since the last run, by their {@link ElasticSearchModifiedAt} field, so a periodic catch-up
+ * costs time in proportion to the changes instead of the table size.
+ *
+ * <p>
+ * The start time of the last successful run is kept as the watermark in a file. Every run sends the models modified
+ * after the watermark minus an overlap, which covers transactions that committed after the last run although they
+ * modified the models before it. The first run only sets the watermark. The changed models are read in the order of
+ * their keys and sent page by page like a full reindex, one bulk request per page with SYNCHRONOUS and LOCAL.
+ */
+public class DeltaReindexJob extends Job<Void> {
+
+	/** The delivery mode of the delta reindex */
+	private final ElasticSearchDeliveryMode deliveryMode;
+
+	/** Time before the watermark which is sent again, in milliseconds */
+	private final long overlap;
+
+	public DeltaReindexJob() {
+		String delivery = Play.configuration.getProperty("elasticsearch.delta.delivery");
+		this.deliveryMode = delivery == null ? null : ElasticSearchDeliveryMode.valueOf(delivery);
+		this.overlap = TimeValue.parseTimeValue(Play.configuration.getProperty("elasticsearch.delta.overlap"), TimeValue.timeValueMinutes(1)).millis();
+	}
+
+	@Override
+	public void doJob() throws Exception {
+		long started = System.currentTimeMillis();
+		Date watermark = getWatermark();
+		if (watermark == null) {
+			Logger.info("First Elastic Search delta reindex, sending the models modified from now on");
+			setWatermark(started);
+			return;
+		}
+
+		if (new ReindexDatabaseJob(deliveryMode, new Date(watermark.getTime() - overlap)).reindexUnlessRunning()) {
+			setWatermark(started);
+		}
+	}
+
+	/**
+	 * Gets the file of the watermark
+	 */
+	public static File getWatermarkFile() {
+		return Play.getFile(Play.configuration.getProperty("elasticsearch.delta.watermark", "data/elasticsearch-delta.properties"));
+	}
+
+	/**
+	 * Gets the start time of the last successful run
+	 *
+	 * @return the watermark, null before the first run
+	 * @throws IOException
+	 *             if the watermark cannot be read
+	 */
+	public static Date getWatermark() throws IOException {
+		File file = getWatermarkFile();
+		if (!file.exists()) {
+			return null;
+		}
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		String watermark = properties.getProperty("modifiedSince");
+		return watermark == null ? null : new Date(Long.parseLong(watermark));
+	}
+
+	/**
+	 * Saves the watermark, replacing the file atomically
+	 */
+	private static void setWatermark(long time) throws IOException {
+		File file = getWatermarkFile();
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Cannot create " + parent);
+		}
+		Properties properties = new Properties();
+		properties.setProperty("modifiedSince", String.valueOf(time));
+		File temp = new File(parent, file.getName() + ".tmp");
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			properties.store(out, "Elastic Search delta reindex watermark");
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("Cannot replace " + file);
+			}
+		}
+	}
+
+}
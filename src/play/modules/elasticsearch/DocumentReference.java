@@ -0,0 +1,118 @@
+package play.modules.elasticsearch;
+
+import play.db.Model;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.mapping.ModelMapper;
+
+/**
+ * An index event which only refers to the document, e.g. one read back from the outbox table or the journal. The
+ * model is loaded when the event is sent, see {@link DocumentRelay}.
+ */
+public class DocumentReference {
+
+	/** The index type of the model */
+	private final String type;
+
+	/** The document id */
+	private final String documentId;
+
+	/** The routing value, null if the model is routed by id */
+	private final String routing;
+
+	/** The operation */
+	private final Type operation;
+
+	/** The time at which the event was created. */
+	private final long timestamp;
+
+	/** The version captured when the event was created, null if it is unknown or the write is not versioned */
+	private final Long version;
+
+	/**
+	 * Instantiates a new document reference.
+	 *
+	 * @param type
+	 *            the index type of the model
+	 * @param documentId
+	 *            the document id
+	 * @param routing
+	 *            the routing value, null if the model is routed by id
+	 * @param operation
+	 *            the operation
+	 * @param timestamp
+	 *            the time at which the event was created
+	 */
+	public DocumentReference(String type, String documentId, String routing, Type operation, long timestamp) {
+		this(type, documentId, routing, operation, timestamp, null);
+	}
+
+	/**
+	 * Instantiates a new document reference.
+	 *
+	 * @param type
+	 *            the index type of the model
+	 * @param documentId
+	 *            the document id
+	 * @param routing
+	 *            the routing value, null if the model is routed by id
+	 * @param operation
+	 *            the operation
+	 * @param timestamp
+	 *            the time at which the event was created
+	 * @param version
+	 *            the version captured when the event was created, null if it is unknown
+	 */
+	public DocumentReference(String type, String documentId, String routing, Type operation, long timestamp, Long version) {
+		this.type = type;
+		this.documentId = documentId;
+		this.routing = routing;
+		this.operation = operation;
+		this.timestamp = timestamp;
+		this.version = version;
+	}
+
+	/**
+	 * Creates the reference to the document of an index event
+	 *
+	 * @param event
+	 *            the event
+	 * @return the reference
+	 */
+	public static DocumentReference of(ElasticSearchIndexEvent event) {
+		Model object = event.getObject();
+		@SuppressWarnings("unchecked")
+		ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(object.getClass());
+		return new DocumentReference(mapper.getTypeName(), mapper.getDocumentId(object), mapper.getRouting(object), event.getType(), event.getTimestamp(),
+				event.getVersion());
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getDocumentId() {
+		return documentId;
+	}
+
+	public String getRouting() {
+		return routing;
+	}
+
+	public Type getOperation() {
+		return operation;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	@Override
+	public String toString() {
+		return "DocumentReference [" + operation + " " + type + "/" + documentId + "]";
+	}
+
+}
@@ -0,0 +1,225 @@
+package play.modules.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.rest.RestStatus;
+
+import play.Logger;
+import play.data.binding.Binder;
+import play.db.Model;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.adapter.DocumentHashCache;
+import play.modules.elasticsearch.adapter.ElasticSearchAdapter;
+import play.modules.elasticsearch.adapter.FieldHashCache;
+import play.modules.elasticsearch.mapping.AssociationPrefetcher;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics.Operation;
+import play.modules.elasticsearch.metrics.TypeMetrics;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * Sends {@link DocumentReference}s to Elastic Search in their current state.
+ *
+ * <p>
+ * The models are loaded with one query per model class, their associations with one query per association, and sent
+ * as one bulk request. Documents whose model exists are indexed, the others are deleted, so sending a reference twice
+ * or out of order does no harm.
+ */
+public class DocumentRelay {
+
+	private DocumentRelay() {
+	}
+
+	/**
+	 * Sends documents as one bulk request
+	 *
+	 * @param em
+	 *            the entity manager to load the models with
+	 * @param references
+	 *            the documents, in the order their events happened. Only the latest reference of a document counts.
+	 * @return for every reference, true if Elastic Search acknowledged its document, false if it has to be sent again
+	 */
+	public static boolean[] send(EntityManager em, List<DocumentReference> references) {
+		// Only the latest reference of a document matters, its current state is sent
+		Map<String, List<Integer>> documents = new LinkedHashMap<String, List<Integer>>();
+		Map<String, DocumentReference> latest = new HashMap<String, DocumentReference>();
+		for (int i = 0; i < references.size(); i++) {
+			DocumentReference reference = references.get(i);
+			String key = reference.getType() + "/" + reference.getDocumentId();
+			List<Integer> document = documents.remove(key);
+			if (document == null) {
+				document = new ArrayList<Integer>();
+			}
+			document.add(Integer.valueOf(i));
+			documents.put(key, document);
+			latest.put(key, reference);
+		}
+
+		Set<String> unloadable = new HashSet<String>();
+		Map<String, Model> models = load(em, latest.values(), unloadable);
+
+		// Build the bulk request
+		Client client = ElasticSearchPlugin.client();
+		BulkRequestBuilder bulk = client.prepareBulk();
+		List<String> sent = new ArrayList<String>();
+		for (String key : documents.keySet()) {
+			DocumentReference reference = latest.get(key);
+			try {
+				if (unloadable.contains(key)) {
+					throw new IllegalStateException("Model could not be loaded");
+				}
+				@SuppressWarnings("unchecked")
+				Class<Model> clazz = (Class<Model>) ElasticSearchPlugin.lookupModel(reference.getType());
+				ElasticSearchPlugin.startIndexIfNeeded(clazz);
+				ModelMapper<Model> mapper = ElasticSearchPlugin.getMapper(clazz);
+				Model model = models.get(key);
+				if (model != null) {
+					Long version = ElasticSearchPlugin.getVersioning().getVersion(new ElasticSearchIndexEvent(model, Type.INDEX));
+					bulk.add(ElasticSearchAdapter.prepareIndex(client, mapper, model, ElasticSearchAdapter.buildSource(mapper, model), version));
+				} else {
+					// Deleted, or never committed
+					DeleteRequestBuilder delete = client.prepareDelete(mapper.getIndexName(), mapper.getTypeName(), reference.getDocumentId()).setRouting(
+							reference.getRouting());
+					Long version = ElasticSearchPlugin.getVersioning().getDeleteVersion(reference);
+					if (version != null) {
+						delete.setVersion(version.longValue()).setVersionType(VersionType.EXTERNAL_GTE);
+					}
+					bulk.add(delete);
+				}
+				sent.add(key);
+			} catch (Throwable t) {
+				Logger.error("Cannot send %s: %s", reference, ExceptionUtil.getStackTrace(t));
+				ElasticSearchMetrics.type(reference.getType()).failed();
+			}
+		}
+
+		// Send it
+		BulkResponse response = null;
+		if (!sent.isEmpty()) {
+			try {
+				long start = System.nanoTime();
+				response = bulk.setRefresh(ElasticSearchAdapter.isRefreshOnWrite()).execute().actionGet();
+				ElasticSearchMetrics.recordCall(Operation.BULK, System.nanoTime() - start);
+				ElasticSearchMetrics.recordBatch(sent.size());
+			} catch (Throwable t) {
+				Logger.error("Elastic Search bulk failed: %s", ExceptionUtil.getStackTrace(t));
+			}
+		}
+
+		// Bulk items are answered in request order
+		boolean[] done = new boolean[references.size()];
+		for (int i = 0; i < sent.size(); i++) {
+			String key = sent.get(i);
+			BulkItemResponse item = response == null ? null : response.getItems()[i];
+			if (processed(latest.get(key), item)) {
+				for (Integer index : documents.get(key)) {
+					done[index.intValue()] = true;
+				}
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * Loads the models of the documents to index, with one query per model class
+	 *
+	 * @param unloadable
+	 *            receives the type/id of documents which could not be loaded
+	 * @return the models by type/id, documents whose model does not exist are missing
+	 */
+	private static Map<String, Model> load(EntityManager em, Iterable<DocumentReference> references, Set<String> unloadable) {
+		// Group the ids by model class
+		Map<Class<? extends Model>, List<Object>> keys = new HashMap<Class<? extends Model>, List<Object>>();
+		for (DocumentReference reference : references) {
+			if (reference.getOperation() == Type.DELETE) {
+				continue;
+			}
+			try {
+				Class<? extends Model> clazz = ElasticSearchPlugin.lookupModel(reference.getType()).asSubclass(Model.class);
+				List<Object> ids = keys.get(clazz);
+				if (ids == null) {
+					ids = new ArrayList<Object>();
+					keys.put(clazz, ids);
+				}
+				ids.add(Binder.directBind(reference.getDocumentId(), Model.Manager.factoryFor(clazz).keyType()));
+			} catch (Exception e) {
+				Logger.error("Cannot load %s: %s", reference, e.getMessage());
+				unloadable.add(reference.getType() + "/" + reference.getDocumentId());
+			}
+		}
+
+		Map<String, Model> models = new HashMap<String, Model>();
+		for (Map.Entry<Class<? extends Model>, List<Object>> entry : keys.entrySet()) {
+			@SuppressWarnings("unchecked")
+			Class<Model> clazz = (Class<Model>) entry.getKey();
+			ModelMapper<Model> mapper = ElasticSearchPlugin.getMapper(clazz);
+			String keyName = Model.Manager.factoryFor(clazz).keyName();
+			@SuppressWarnings("unchecked")
+			List<Model> loaded = em.createQuery("select e from " + clazz.getName() + " e where e." + keyName + " in (:ids)").setParameter("ids", entry.getValue())
+					.getResultList();
+			AssociationPrefetcher.prefetch(em, loaded);
+			for (Model model : loaded) {
+				models.put(mapper.getTypeName() + "/" + mapper.getDocumentId(model), model);
+			}
+		}
+		return models;
+	}
+
+	/**
+	 * Counts the outcome of a bulk item and invalidates the hash caches of the document
+	 *
+	 * @return true if the document is done, false if it has to be sent again
+	 */
+	private static boolean processed(DocumentReference reference, BulkItemResponse item) {
+		TypeMetrics metrics = ElasticSearchMetrics.type(reference.getType());
+		if (item != null) {
+			ModelMapper<?> mapper = ElasticSearchPlugin.getMapper(ElasticSearchPlugin.lookupModel(reference.getType()));
+			FieldHashCache fieldHashes = ElasticSearchPlugin.getFieldHashCache();
+			if (fieldHashes != null) {
+				fieldHashes.invalidate(mapper.getIndexName(), reference.getType(), reference.getDocumentId());
+			}
+			DocumentHashCache documentHashes = ElasticSearchPlugin.getDocumentHashCache();
+			if (documentHashes != null) {
+				documentHashes.invalidate(mapper.getIndexName(), reference.getType(), reference.getDocumentId());
+			}
+		}
+
+		if (item == null) {
+			// The whole bulk request failed
+			metrics.failed();
+			return false;
+		}
+		if (item.isFailed()) {
+			if (item.getFailure().getStatus() == RestStatus.CONFLICT) {
+				// A newer version has been indexed already
+				metrics.skipped();
+				return true;
+			}
+			metrics.failed();
+			Logger.error("Elastic Search - %s failed: %s", reference, item.getFailureMessage());
+			return false;
+		}
+		if ("delete".equals(item.getOpType())) {
+			metrics.deleted();
+		} else {
+			metrics.indexed();
+		}
+		return true;
+	}
+
+}
@@ -18,6 +18,8 @@
  */
 package play.modules.elasticsearch;
 
+import java.util.Date;
+
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
@@ -27,6 +29,7 @@ import org.elasticsearch.search.facet.FacetBuilder;
 import play.Play;
 import play.db.Model;
 import play.libs.F.Promise;
+import play.modules.elasticsearch.annotations.ElasticSearchModifiedAt;
 import play.modules.elasticsearch.mapping.ModelMapper;
 import play.modules.elasticsearch.search.SearchResults;
 
@@ -173,7 +176,33 @@ public abstract class ElasticSearch {
 	}
 
 	/**
-	 * Reindexes the given model using provided delivery mode
+	 * Indexes the given model using delivery mode, optionally refreshing the index after the write. A refresh makes
+	 * the model visible to searches right away, but is expensive, prefer {@link Query#waitFor(String...)} when
+	 * writes are frequent.
+	 * 
+	 * @param <T>
+	 *            the model type
+	 * @param model
+	 *            the model
+	 * @param refresh
+	 *            refresh the index after the write
+	 */
+	public static <T extends Model> void index(final T model, final ElasticSearchDeliveryMode deliveryMode, final boolean refresh) {
+		final ElasticSearchPlugin plugin = Play.plugin(ElasticSearchPlugin.class);
+		plugin.index(model, deliveryMode, refresh);
+	}
+
+	/**
+	 * Deletes all documents by recreating the indexes of all searchable models. Meant to isolate tests from each other,
+	 * only allowed in local mode.
+	 */
+	public static void resetAll() {
+		ElasticSearchPlugin.resetAll();
+	}
+
+	/**
+	 * Reindexes the given model using provided delivery mode. A reindex which was interrupted continues from its
+	 * checkpoint.
 	 * 
 	 * @param deliveryMode
 	 *            Delivery mode to use for reindexing tasks. Set null to use the default, synchronous mode.
@@ -184,4 +213,26 @@ public abstract class ElasticSearch {
 		return new ReindexDatabaseJob(deliveryMode).now();
 	}
 
+	/**
+	 * Reindexes the models modified after a time, by their {@link ElasticSearchModifiedAt} field. Models without such
+	 * a field are skipped.
+	 * 
+	 * @param deliveryMode
+	 *            Delivery mode to use for reindexing tasks. Set null to use the default, synchronous mode.
+	 * @param modifiedSince
+	 *            only models modified after this time are sent
+	 */
+	public static Promise<Void> reindex(final ElasticSearchDeliveryMode deliveryMode, final Date modifiedSince) {
+		return new ReindexDatabaseJob(deliveryMode, modifiedSince).now();
+	}
+
+	/**
+	 * Gets the progress of the running or last reindex
+	 * 
+	 * @return the progress, null if no reindex ran since the start
+	 */
+	public static ReindexProgress getReindexProgress() {
+		return ReindexDatabaseJob.getProgress();
+	}
+
 }
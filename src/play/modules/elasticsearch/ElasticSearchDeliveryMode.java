@@ -20,6 +20,7 @@ package play.modules.elasticsearch;
 
 import play.Logger;
 import play.Play;
+import play.modules.elasticsearch.outbox.OutboxIndexEventHandler;
 import play.modules.elasticsearch.rabbitmq.RabbitMQIndexEventHandler;
 
 /**
@@ -36,6 +37,9 @@ public class ElasticSearchDeliveryMode {
 	/** The Synchronous. */
 	public final static ElasticSearchDeliveryMode SYNCHRONOUS = new ElasticSearchDeliveryMode(new SynchronousIndexEventHandler());
 
+	/** The outbox table, written in the JPA transaction of the change. */
+	public final static ElasticSearchDeliveryMode OUTBOX = new ElasticSearchDeliveryMode(new OutboxIndexEventHandler());
+
 	/** The Discard all messages. */
 	public final static ElasticSearchDeliveryMode DISCARD = new ElasticSearchDeliveryMode(new IndexEventHandler() {
 		@Override
@@ -77,6 +81,8 @@ public class ElasticSearchDeliveryMode {
 			return SYNCHRONOUS;
 		if ("DISCARD".equals(s))
 			return DISCARD;
+		if ("OUTBOX".equals(s))
+			return OUTBOX;
 		throw new IllegalArgumentException("Unspecified Mode given: " + s);
 	}
 
@@ -18,19 +18,60 @@
  */
 package play.modules.elasticsearch;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.rest.RestStatus;
 
 import play.Logger;
 import play.db.Model;
+import play.modules.elasticsearch.adapter.DocumentHashCache;
 import play.modules.elasticsearch.adapter.ElasticSearchAdapter;
+import play.modules.elasticsearch.adapter.FieldHashCache;
 import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics.Operation;
+import play.modules.elasticsearch.metrics.TypeMetrics;
 import play.modules.elasticsearch.util.ExceptionUtil;
 
+
 /**
  * The Class ElasticSearchIndexAction.
  */
 public class ElasticSearchIndexAction implements play.libs.F.Action<ElasticSearchIndexEvent> {
 
+	/** Number of stale writes rejected by external versioning */
+	private static final AtomicLong versionConflicts = new AtomicLong();
+
+	/**
+	 * Gets the number of stale writes which were rejected because a newer version was already indexed
+	 * 
+	 * @return the number of version conflicts
+	 */
+	public static long getVersionConflicts() {
+		return versionConflicts.get();
+	}
+
+	/** Number of events which failed for a retryable reason, i.e. a sign of an overloaded cluster */
+	private int rejected;
+
+	/**
+	 * Gets the number of events sent by this action which failed for a retryable reason
+	 * 
+	 * @return the number of rejected events
+	 */
+	public int getRejected() {
+		return rejected;
+	}
+
 	/**
 	 * Invoke Action
 	 * 
@@ -38,6 +79,13 @@ public class ElasticSearchIndexAction implements play.libs.F.Action<ElasticSearc
 	 */
 	@Override
 	public void invoke(ElasticSearchIndexEvent message) {
+		deliver(message);
+	}
+
+	/**
+	 * Sends a single event, a failed write is handed to the retry policy
+	 */
+	private void deliver(ElasticSearchIndexEvent message) {
 		// Log Debug
 		Logger.debug("Elastic Search - %s Event", message);
 
@@ -45,20 +93,192 @@ public class ElasticSearchIndexAction implements play.libs.F.Action<ElasticSearc
 		Model object = message.getObject();
 		@SuppressWarnings("unchecked")
 		ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(object.getClass());
+		FieldHashCache fieldHashes = ElasticSearchPlugin.getFieldHashCache();
+		DocumentHashCache documentHashes = ElasticSearchPlugin.getDocumentHashCache();
+		Long version = ElasticSearchPlugin.getVersioning().getVersion(message);
+		TypeMetrics metrics = ElasticSearchMetrics.type(mapper.getTypeName());
+		boolean acknowledged = false;
 
 		// Index Event
 		try {
 			switch (message.getType()) {
 			case INDEX:
-				ElasticSearchAdapter.indexModel(client, mapper, object);
+				// The document hashes describe queued events, they are remembered when the event is queued
+				if (fieldHashes != null) {
+					if (ElasticSearchAdapter.updateModel(client, mapper, object, fieldHashes, null, version, message.isRefresh())) {
+						metrics.indexed();
+					} else {
+						metrics.skipped();
+					}
+				} else {
+					ElasticSearchAdapter.indexModel(client, mapper, object, null, version, message.isRefresh());
+					metrics.indexed();
+				}
 				break;
 			case DELETE:
-				ElasticSearchAdapter.deleteModel(client, mapper, object);
+				if (fieldHashes != null) {
+					fieldHashes.invalidate(mapper.getIndexName(), mapper.getTypeName(), mapper.getDocumentId(object));
+				}
+				if (documentHashes != null) {
+					documentHashes.invalidate(mapper.getIndexName(), mapper.getTypeName(), mapper.getDocumentId(object));
+				}
+				ElasticSearchAdapter.deleteModel(client, mapper, object, version, message.isRefresh());
+				metrics.deleted();
 				break;
 			}
+			acknowledged = true;
+		} catch (Throwable t) {
+			// Whatever the document looks like now, it is not the queued source
+			if (documentHashes != null) {
+				documentHashes.invalidate(mapper.getIndexName(), mapper.getTypeName(), mapper.getDocumentId(object));
+			}
+			if (ExceptionsHelper.unwrapCause(t) instanceof VersionConflictEngineException) {
+				// A newer version has been indexed already
+				versionConflicts.incrementAndGet();
+				metrics.skipped();
+				Logger.debug("Ignoring stale %s (version %s)", message, version);
+			} else {
+				boolean retryable = RetryPolicy.isRetryable(t);
+				if (!retryable) {
+					Logger.error(ExceptionUtil.getStackTrace(t));
+				}
+				failed(message, retryable, t.toString());
+			}
+		} finally {
+			ElasticSearchMetrics.eventProcessed(message.getTimestamp(), acknowledged);
+			PendingWrites.processed(message);
+		}
+	}
+
+	/**
+	 * Sends a batch of events as a single bulk request. Documents are always indexed in full, partial updates only
+	 * apply to single events. Once it returns, every event is written, ignored as stale, or handed to the retry
+	 * policy.
+	 * 
+	 * @param messages
+	 *            the events, in the order they happened
+	 */
+	public void invokeBulk(List<ElasticSearchIndexEvent> messages) {
+		if (messages.size() == 1) {
+			deliver(messages.get(0));
+			return;
+		}
+		Logger.debug("Elastic Search - Bulk of %d Events", messages.size());
+
+		Client client = ElasticSearchPlugin.client();
+		BulkRequestBuilder bulk = client.prepareBulk();
+		List<ElasticSearchIndexEvent> sent = new ArrayList<ElasticSearchIndexEvent>(messages.size());
+		boolean refresh = ElasticSearchAdapter.isRefreshOnWrite();
+
+		// Build the bulk request
+		for (ElasticSearchIndexEvent message : messages) {
+			Model object = message.getObject();
+			@SuppressWarnings("unchecked")
+			ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(object.getClass());
+			Long version = ElasticSearchPlugin.getVersioning().getVersion(message);
+			try {
+				switch (message.getType()) {
+				case INDEX:
+					XContentBuilder source = ElasticSearchAdapter.buildSource(mapper, object);
+					bulk.add(ElasticSearchAdapter.prepareIndex(client, mapper, object, source, version));
+					break;
+				case DELETE:
+					bulk.add(ElasticSearchAdapter.prepareDelete(client, mapper, object, version));
+					break;
+				}
+				sent.add(message);
+				refresh |= message.isRefresh();
+			} catch (Throwable t) {
+				// The document cannot be built, retrying would not help
+				ElasticSearchMetrics.eventProcessed(message.getTimestamp(), false);
+				PendingWrites.processed(message);
+				Logger.error(ExceptionUtil.getStackTrace(t));
+				failed(message, false, t.toString());
+			}
+		}
+		if (sent.isEmpty()) {
+			return;
+		}
+
+		// Send it
+		BulkResponse response = null;
+		Throwable failure = null;
+		try {
+			long start = System.nanoTime();
+			response = bulk.setRefresh(refresh).execute().actionGet();
+			ElasticSearchMetrics.recordCall(Operation.BULK, System.nanoTime() - start);
+			ElasticSearchMetrics.recordBatch(sent.size());
 		} catch (Throwable t) {
 			Logger.error(ExceptionUtil.getStackTrace(t));
+			failure = t;
+		}
+
+		// Bulk items are answered in request order
+		for (int i = 0; i < sent.size(); i++) {
+			ElasticSearchIndexEvent message = sent.get(i);
+			BulkItemResponse item = response == null ? null : response.getItems()[i];
+			ElasticSearchMetrics.eventProcessed(message.getTimestamp(), processed(message, item, failure));
+			PendingWrites.processed(message);
+		}
+	}
+
+	/**
+	 * Counts the outcome of a bulk item, updates the hash caches and hands failed writes to the retry policy
+	 * 
+	 * @param failure
+	 *            the failure of the whole bulk request, if there is no item
+	 * @return true if Elastic Search acknowledged the write
+	 */
+	private boolean processed(ElasticSearchIndexEvent message, BulkItemResponse item, Throwable failure) {
+		Model object = message.getObject();
+		@SuppressWarnings("unchecked")
+		ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(object.getClass());
+		TypeMetrics metrics = ElasticSearchMetrics.type(mapper.getTypeName());
+		String documentId = mapper.getDocumentId(object);
+
+		// The field hashes are not known after a full index
+		FieldHashCache fieldHashes = ElasticSearchPlugin.getFieldHashCache();
+		if (fieldHashes != null) {
+			fieldHashes.invalidate(mapper.getIndexName(), mapper.getTypeName(), documentId);
+		}
+		// The document hash was remembered when the event was queued, a failed write leaves the document unknown
+		DocumentHashCache documentHashes = ElasticSearchPlugin.getDocumentHashCache();
+		if (documentHashes != null && (item == null || item.isFailed())) {
+			documentHashes.invalidate(mapper.getIndexName(), mapper.getTypeName(), documentId);
+		}
+
+		if (item == null) {
+			// The whole bulk request failed
+			failed(message, failure == null || RetryPolicy.isRetryable(failure), String.valueOf(failure));
+			return false;
+		}
+		if (item.isFailed()) {
+			if (item.getFailure().getStatus() == RestStatus.CONFLICT) {
+				// A newer version has been indexed already
+				versionConflicts.incrementAndGet();
+				metrics.skipped();
+				Logger.debug("Ignoring stale %s", message);
+			} else {
+				failed(message, RetryPolicy.isRetryable(item.getFailure().getStatus()), item.getFailureMessage());
+			}
+			return false;
+		}
+		if (message.getType() == ElasticSearchIndexEvent.Type.DELETE) {
+			metrics.deleted();
+		} else {
+			metrics.indexed();
+		}
+		return true;
+	}
+
+	/**
+	 * Hands a failed write to the retry policy and counts it if it was rejected
+	 */
+	private void failed(ElasticSearchIndexEvent message, boolean retryable, String error) {
+		if (retryable) {
+			rejected++;
 		}
+		ElasticSearchPlugin.getRetryPolicy().failed(message, retryable, error);
 	}
 
 }
@@ -31,6 +31,24 @@ public class ElasticSearchIndexEvent {
 	/** The type. */
 	private Type type;
 
+	/** The time at which the event was created. */
+	private long timestamp;
+
+	/** Refresh the index after the write, so the document is visible to searches right away. */
+	private boolean refresh;
+
+	/** The lane the event is queued in by the LOCAL indexer. */
+	private Priority priority;
+
+	/** The number of times sending the event failed. */
+	private int attempts;
+
+	/** The external version of the model when the event was created, null for unversioned writes. */
+	private Long version;
+
+	/** The hash of the source when the event was created, null if it was not hashed. */
+	private Long sourceHash;
+
 	/**
 	 * Instantiates a new elastic search index event.
 	 * 
@@ -40,9 +58,43 @@ public class ElasticSearchIndexEvent {
 	 *            the type
 	 */
 	public ElasticSearchIndexEvent(Model object, Type type) {
+		this(object, type, false);
+	}
+
+	/**
+	 * Instantiates a new elastic search index event.
+	 * 
+	 * @param object
+	 *            the object
+	 * @param type
+	 *            the type
+	 * @param refresh
+	 *            refresh the index after the write
+	 */
+	public ElasticSearchIndexEvent(Model object, Type type, boolean refresh) {
+		this(object, type, refresh, Priority.LIVE);
+	}
+
+	/**
+	 * Instantiates a new elastic search index event.
+	 * 
+	 * @param object
+	 *            the object
+	 * @param type
+	 *            the type
+	 * @param refresh
+	 *            refresh the index after the write
+	 * @param priority
+	 *            the lane the event is queued in by the LOCAL indexer
+	 */
+	public ElasticSearchIndexEvent(Model object, Type type, boolean refresh, Priority priority) {
 		super();
 		this.object = object;
 		this.type = type;
+		this.refresh = refresh;
+		this.priority = priority;
+		this.timestamp = System.currentTimeMillis();
+		this.version = object == null ? null : ElasticSearchPlugin.getVersioning().getVersion(object, this.timestamp);
 	}
 
 	/**
@@ -58,6 +110,19 @@ public class ElasticSearchIndexEvent {
 
 	}
 
+	/**
+	 * The lanes of the LOCAL indexer.
+	 */
+	public static enum Priority {
+
+		/** Changes made by users, sent first. */
+		LIVE,
+
+		/** Reindexing, sent when no live event waits. */
+		REINDEX;
+
+	}
+
 	/**
 	 * Gets the object.
 	 * 
@@ -76,6 +141,73 @@ public class ElasticSearchIndexEvent {
 		return this.type;
 	}
 
+	/**
+	 * Gets the time at which the event was created.
+	 * 
+	 * @return the timestamp in milliseconds
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	/**
+	 * Checks if the index should be refreshed after the write.
+	 * 
+	 * @return true to refresh the index
+	 */
+	public boolean isRefresh() {
+		return this.refresh;
+	}
+
+	/**
+	 * Gets the lane the event is queued in by the LOCAL indexer.
+	 * 
+	 * @return the priority
+	 */
+	public Priority getPriority() {
+		return this.priority;
+	}
+
+	/**
+	 * Gets the external version of the model when the event was created.
+	 * 
+	 * @return the version, null for unversioned writes
+	 */
+	public Long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Gets the hash of the source when the event was created.
+	 * 
+	 * @return the hash, null if it was not hashed
+	 */
+	public Long getSourceHash() {
+		return this.sourceHash;
+	}
+
+	void setSourceHash(Long sourceHash) {
+		this.sourceHash = sourceHash;
+	}
+
+	/**
+	 * Gets the number of times sending the event failed.
+	 * 
+	 * @return the failed attempts
+	 */
+	public int getAttempts() {
+		return this.attempts;
+	}
+
+	/**
+	 * Counts a failed attempt to send the event.
+	 * 
+	 * @return the failed attempts
+	 */
+	int failedAttempt() {
+		return ++this.attempts;
+	}
+
 	/**
 	 * To String
 	 * 
@@ -18,24 +18,87 @@
  */
 package play.modules.elasticsearch;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import play.Logger;
+import play.db.Model;
 import play.db.jpa.NoTransaction;
 import play.jobs.Job;
-import play.libs.F.Promise;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Priority;
+import play.modules.elasticsearch.journal.IndexJournal;
 import play.modules.elasticsearch.util.ExceptionUtil;
 
 /**
  * Indexer job.
  * 
- * <p>The indexing process runs in a separate thread
+ * <p>The indexing process runs in a separate thread. Events which queued up while a request was sent are sent
+ * together as one bulk request, live events before reindex events (see {@link IndexLanes}). The bulk size and the
+ * number of bulk requests in flight follow the
+ * {@link AdaptiveBulkLimit} of the plugin. A bulk which contains a document of a bulk in flight waits until no bulk is
+ * in flight, so writes of the same document are never reordered.
  * <p>The {@link NoTransaction} annotation prevents the JPAPlugin from creating a hibernate session, 
  * which would remain open for as long as this job is active
  */
 @NoTransaction
 public class ElasticSearchIndexer extends Job<Void> {
 
-	/** Index Stream */
-	public static play.libs.F.EventStream<ElasticSearchIndexEvent> stream = new play.libs.F.EventStream<ElasticSearchIndexEvent>();
+	/** Maximum number of queued live batches, publishers wait when the lane is full */
+	private static final int QUEUE_CAPACITY = 10000;
+
+	/** Maximum number of queued reindex batches, kept small so reindex jobs wait early */
+	private static final int REINDEX_QUEUE_CAPACITY = 1000;
+
+	/** Batches of events waiting to be indexed */
+	private static final IndexLanes lanes = new IndexLanes(QUEUE_CAPACITY, REINDEX_QUEUE_CAPACITY);
+
+	/** Bulks in flight, in the order they were sent, so the journal is acknowledged in order */
+	private final LinkedList<Bulk> inFlight = new LinkedList<Bulk>();
+
+	/** The documents of the bulks in flight */
+	private final Set<String> inFlightDocuments = new HashSet<String>();
+
+	/** Sends the bulk requests */
+	private final ExecutorService senders = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "elasticsearch-bulk");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Queues an event
+	 */
+	static void publish(ElasticSearchIndexEvent event) {
+		publish(Collections.singletonList(event));
+	}
+
+	/**
+	 * Queues a batch of events, they are sent in the same bulk request
+	 */
+	static void publish(List<ElasticSearchIndexEvent> events) {
+		try {
+			lanes.put(events);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while queueing index events", e);
+		}
+	}
+
+	/**
+	 * Gets the queue of the indexer
+	 */
+	static IndexLanes getLanes() {
+		return lanes;
+	}
 
 	/**
 	 * 
@@ -48,15 +111,113 @@ public class ElasticSearchIndexer extends Job<Void> {
 
 		while (true) {
 			try {
-				Promise<ElasticSearchIndexEvent> promise = ElasticSearchIndexer.stream.nextEvent();
-				ElasticSearchIndexEvent indexEvent = promise.get();
-				ElasticSearchIndexAction indexAction = new ElasticSearchIndexAction();
-				indexAction.invoke(indexEvent);
+				AdaptiveBulkLimit limit = ElasticSearchPlugin.getBulkLimit();
+				Bulk bulk = new Bulk(lanes.take(limit.getBulkSize()));
+				if (overlaps(bulk)) {
+					limit.awaitIdle();
+				}
+				send(bulk, limit, limit.acquire());
 
+			} catch (InterruptedException e) {
+				Logger.info("Elastic Search indexer interrupted");
+				return;
 			} catch (Throwable t) {
 				Logger.error(ExceptionUtil.getStackTrace(t));
 			}
 		}
 	}
 
+	/**
+	 * Checks if a bulk contains a document of a bulk in flight
+	 */
+	private boolean overlaps(Bulk bulk) {
+		synchronized (inFlight) {
+			for (String document : bulk.documents) {
+				if (inFlightDocuments.contains(document)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Sends a bulk in the background
+	 * 
+	 * @param started
+	 *            the time returned by {@link AdaptiveBulkLimit#acquire()}
+	 */
+	private void send(final Bulk bulk, final AdaptiveBulkLimit limit, final long started) {
+		synchronized (inFlight) {
+			inFlight.add(bulk);
+			inFlightDocuments.addAll(bulk.documents);
+		}
+		senders.execute(new Runnable() {
+			@Override
+			public void run() {
+				ElasticSearchIndexAction indexAction = new ElasticSearchIndexAction();
+				boolean done = false;
+				try {
+					indexAction.invokeBulk(bulk.events);
+					done = true;
+				} catch (Throwable t) {
+					Logger.error(ExceptionUtil.getStackTrace(t));
+				} finally {
+					completed(bulk, done);
+					limit.completed(started, bulk.events.size(), indexAction.getRejected());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Moves the journal checkpoint past the bulks which completed, in the order they were sent. Events handed to the
+	 * retry policy count as done, their retries are sent on their own. Only live events are journaled.
+	 */
+	private void completed(Bulk bulk, boolean done) {
+		IndexJournal journal = ElasticSearchPlugin.getJournal();
+		synchronized (inFlight) {
+			bulk.completed = true;
+			bulk.done = done;
+			inFlightDocuments.removeAll(bulk.documents);
+			while (!inFlight.isEmpty() && inFlight.getFirst().completed) {
+				Bulk first = inFlight.removeFirst();
+				if (journal != null && first.live) {
+					journal.acknowledge(first.events.size(), first.done);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A bulk of events and its outcome
+	 */
+	private static class Bulk {
+
+		final List<ElasticSearchIndexEvent> events;
+
+		/** The documents of the events, by class and key */
+		final Set<String> documents;
+
+		/** Whether the bulk request completed */
+		boolean completed;
+
+		/** Whether all events of the bulk were written, ignored as stale or handed to the retry policy */
+		boolean done;
+
+		/** Whether the events come from the live lane */
+		final boolean live;
+
+		Bulk(List<ElasticSearchIndexEvent> events) {
+			this.events = events;
+			this.live = events.get(0).getPriority() != Priority.REINDEX;
+			this.documents = new HashSet<String>(events.size() * 2);
+			for (ElasticSearchIndexEvent event : events) {
+				Model object = event.getObject();
+				documents.add(object.getClass().getName() + "#" + object._key());
+			}
+		}
+
+	}
+
 }
@@ -20,8 +20,16 @@ package play.modules.elasticsearch;
 
 import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,6 +41,9 @@ import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.ImmutableSettings.Builder;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
 
@@ -40,14 +51,29 @@ import play.Logger;
 import play.Play;
 import play.PlayPlugin;
 import play.db.Model;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Priority;
 import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.adapter.DocumentHashCache;
 import play.modules.elasticsearch.adapter.ElasticSearchAdapter;
-import play.modules.elasticsearch.annotations.ElasticSearchable;
+import play.modules.elasticsearch.adapter.FieldHashCache;
+import play.modules.elasticsearch.adapter.RefreshCoalescer;
+import play.modules.elasticsearch.client.LeastLatencyClient;
+import play.modules.elasticsearch.client.NodeLatency;
+import play.modules.elasticsearch.deadletter.DeadLetter;
+import play.modules.elasticsearch.deadletter.DeadLetters;
+import play.modules.elasticsearch.journal.IndexJournal;
+import play.modules.elasticsearch.journal.JournalReplayJob;
 import play.modules.elasticsearch.mapping.MapperFactory;
 import play.modules.elasticsearch.mapping.MappingException;
 import play.modules.elasticsearch.mapping.MappingUtil;
 import play.modules.elasticsearch.mapping.ModelMapper;
 import play.modules.elasticsearch.mapping.impl.DefaultMapperFactory;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+import play.modules.elasticsearch.metrics.Histogram;
+import play.modules.elasticsearch.metrics.MetricsMBean;
+import play.modules.elasticsearch.metrics.TypeMetrics;
+import play.modules.elasticsearch.outbox.OutboxEntry;
+import play.modules.elasticsearch.outbox.OutboxRelayJob;
 import play.modules.elasticsearch.util.ExceptionUtil;
 import play.modules.elasticsearch.util.ReflectionUtil;
 import play.mvc.Router;
@@ -66,18 +92,54 @@ public class ElasticSearchPlugin extends PlayPlugin {
 
 	private static volatile ElasticSearchDeliveryMode currentDeliveryMode;
 
+	/** The versioning strategy for index writes */
+	private static ElasticSearchVersioning versioning = ElasticSearchVersioning.NONE;
+
+	/** Queries taking at least this many milliseconds are logged, -1 to disable */
+	private static long slowQueryThreshold = -1;
+
+	/** Refreshes indexes for queries waiting for their writes */
+	private static RefreshCoalescer refreshCoalescer = new RefreshCoalescer(100);
+
+	/** How long queries wait for documents to be written, in milliseconds */
+	private static long waitForTimeout = 5000;
+
+	/** Whether JPA events are buffered until their transaction commits */
+	private static boolean transactional = false;
+
+	/** Whether this node relays the outbox table */
+	private static boolean outbox = false;
+
+	/** Journal of the events queued by the LOCAL delivery mode, null if disabled */
+	private static IndexJournal journal = null;
+
+	/** What happens to writes which failed */
+	private static RetryPolicy retryPolicy = new RetryPolicy(5, 100, 30000);
+
+	/** Bulk size and concurrency of the LOCAL indexer */
+	private static AdaptiveBulkLimit bulkLimit = new AdaptiveBulkLimit(50, 500, 2000, 4, 1000);
+
 	/** The mappers index. */
-	private static Map<Class<?>, ModelMapper<?>> mappers = null;
+	private static Map<Class<?>, ModelMapper<?>> mappers = new ConcurrentHashMap<Class<?>, ModelMapper<?>>();
 
 	/** The started indices. */
-	private static Set<Class<?>> indicesStarted = null;
+	private static Set<Class<?>> indicesStarted = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
+	/** Index type -> Class lookup, built on application start and never modified afterwards */
+	private static volatile Map<String, Class<?>> modelLookup = Collections.emptyMap();
+
+	/** Field hashes of indexed documents, null unless partial updates are enabled */
+	private static FieldHashCache fieldHashes = null;
 
-	/** Index type -> Class lookup */
-	private static Map<String, Class<?>> modelLookup = null;
+	/** Source hashes of indexed documents, null unless unchanged documents are skipped */
+	private static DocumentHashCache documentHashes = null;
 
 	/** The client. */
 	private static Client client = null;
 
+	/** Whether the client belongs to a node embedded in this JVM */
+	private static boolean localMode = false;
+
 	/**
 	 * Client.
 	 * 
@@ -90,6 +152,25 @@ public class ElasticSearchPlugin extends PlayPlugin {
 	public static void setMapperFactory(final MapperFactory factory) {
 		mapperFactory = factory;
 		mappers.clear();
+		buildModelRegistry();
+	}
+
+	/**
+	 * Gets the cache used for partial document updates
+	 * 
+	 * @return the field hash cache, or null if partial updates are disabled
+	 */
+	public static FieldHashCache getFieldHashCache() {
+		return fieldHashes;
+	}
+
+	/**
+	 * Gets the cache used to skip unchanged documents
+	 * 
+	 * @return the document hash cache, or null if unchanged documents are not skipped
+	 */
+	public static DocumentHashCache getDocumentHashCache() {
+		return documentHashes;
 	}
 
 	/**
@@ -137,6 +218,69 @@ public class ElasticSearchPlugin extends PlayPlugin {
 		currentDeliveryMode = deliveryMode;
 	}
 
+	/**
+	 * Gets the versioning strategy used for index writes
+	 * 
+	 * @return the versioning strategy
+	 */
+	public static ElasticSearchVersioning getVersioning() {
+		return versioning;
+	}
+
+	/**
+	 * Gets the journal of the events queued by the LOCAL delivery mode
+	 * 
+	 * @return the journal, or null if it is disabled
+	 */
+	public static IndexJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Gets the policy which retries failed writes
+	 * 
+	 * @return the retry policy
+	 */
+	public static RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Gets the bulk size and concurrency of the LOCAL indexer
+	 * 
+	 * @return the adaptive bulk limit
+	 */
+	public static AdaptiveBulkLimit getBulkLimit() {
+		return bulkLimit;
+	}
+
+	/**
+	 * Gets the threshold above which queries are logged as slow
+	 * 
+	 * @return the threshold in milliseconds, or -1 if slow queries are not logged
+	 */
+	public static long getSlowQueryThreshold() {
+		return slowQueryThreshold;
+	}
+
+	/**
+	 * Gets the refresher of indexes for queries waiting for their writes
+	 * 
+	 * @return the refresh coalescer
+	 */
+	public static RefreshCoalescer getRefreshCoalescer() {
+		return refreshCoalescer;
+	}
+
+	/**
+	 * Gets how long queries wait for documents to be written
+	 * 
+	 * @return the timeout in milliseconds
+	 */
+	public static long getWaitForTimeout() {
+		return waitForTimeout;
+	}
+
 	/**
 	 * Gets the delivery mode from the configuration.
 	 * 
@@ -159,21 +303,115 @@ public class ElasticSearchPlugin extends PlayPlugin {
 	 */
 	@Override
 	public void onApplicationStart() {
+		// The outbox and dead letter entities have to be known before the JPA plugin starts
+		outbox = "OUTBOX".equalsIgnoreCase(Play.configuration.getProperty("elasticsearch.delivery"))
+				|| Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.outbox.enabled", "false"));
+		if (outbox) {
+			registerEntity(OutboxEntry.class);
+		}
+		DeadLetters.setEnabled(Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.deadLetters.enabled", "false")));
+		if (DeadLetters.isEnabled()) {
+			registerEntity(DeadLetter.class);
+		}
+
+		// Retries
+		retryPolicy.shutdown();
+		retryPolicy = new RetryPolicy(Integer.parseInt(Play.configuration.getProperty("elasticsearch.retry.maxAttempts", "5")),
+				TimeValue.parseTimeValue(Play.configuration.getProperty("elasticsearch.retry.initialBackoff"), TimeValue.timeValueMillis(100)).millis(),
+				TimeValue.parseTimeValue(Play.configuration.getProperty("elasticsearch.retry.maxBackoff"), TimeValue.timeValueSeconds(30)).millis());
+
+		// Lanes of the LOCAL indexer
+		ElasticSearchIndexer.getLanes().configure(Integer.parseInt(Play.configuration.getProperty("elasticsearch.lanes.liveWeight", "4")),
+				Double.parseDouble(Play.configuration.getProperty("elasticsearch.lanes.reindexRate", "0")));
+
+		// Adaptive bulks, bulks in flight keep the limit they were sent with
+		bulkLimit = new AdaptiveBulkLimit(Integer.parseInt(Play.configuration.getProperty("elasticsearch.bulk.minSize", "50")),
+				Integer.parseInt(Play.configuration.getProperty("elasticsearch.bulk.initialSize", "500")),
+				Integer.parseInt(Play.configuration.getProperty("elasticsearch.bulk.maxSize", "2000")),
+				Integer.parseInt(Play.configuration.getProperty("elasticsearch.bulk.maxConcurrency", "4")),
+				TimeValue.parseTimeValue(Play.configuration.getProperty("elasticsearch.bulk.targetLatency"), TimeValue.timeValueSeconds(1)).millis());
+
 		// (re-)set caches
 		mappers = new ConcurrentHashMap<Class<?>, ModelMapper<?>>();
-		modelLookup = new ConcurrentHashMap<String, Class<?>>();
 		indicesStarted = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
 		ReflectionUtil.clearCache();
+		MappingUtil.clearCache();
+		buildModelRegistry();
+
+		// Partial updates
+		if (Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.partialUpdates", "false"))) {
+			final int cacheSize = Integer.parseInt(Play.configuration.getProperty("elasticsearch.partialUpdates.cacheSize", "10000"));
+			fieldHashes = new FieldHashCache(cacheSize);
+		} else {
+			fieldHashes = null;
+		}
+
+		// External versioning
+		versioning = ElasticSearchVersioning.valueOf(Play.configuration.getProperty("elasticsearch.versioning", "NONE").toUpperCase());
+
+		// Slow query log
+		final String threshold = Play.configuration.getProperty("elasticsearch.slowQuery.threshold");
+		slowQueryThreshold = threshold == null ? -1 : TimeValue.parseTimeValue(threshold, null).millis();
+
+		// Transaction scoped events
+		transactional = Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.transactional", "false"));
+
+		// Journal of the LOCAL delivery mode
+		if (Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.journal.enabled", "false"))) {
+			final String path = Play.configuration.getProperty("elasticsearch.journal.path", "data/elasticsearch-journal");
+			final File directory = new File(path).isAbsolute() ? new File(path) : Play.getFile(path);
+			final ByteSizeValue segmentSize = ByteSizeValue.parseBytesSizeValue(Play.configuration.getProperty("elasticsearch.journal.segmentSize"), new ByteSizeValue(64, ByteSizeUnit.MB));
+			try {
+				journal = new IndexJournal(directory, (int) segmentSize.bytes());
+			} catch (final IOException e) {
+				throw new RuntimeException("Cannot open the Elastic Search journal in " + directory, e);
+			}
+		} else {
+			journal = null;
+		}
+
+		// Read your writes
+		refreshCoalescer = new RefreshCoalescer(TimeValue.parseTimeValue(Play.configuration.getProperty("elasticsearch.waitFor.refreshInterval"), TimeValue.timeValueMillis(100)).millis());
+		waitForTimeout = TimeValue.parseTimeValue(Play.configuration.getProperty("elasticsearch.waitFor.timeout"), TimeValue.timeValueSeconds(5)).millis();
+
+		// Skip unchanged documents
+		if (Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.skipUnchanged", "false"))) {
+			final int cacheSize = Integer.parseInt(Play.configuration.getProperty("elasticsearch.skipUnchanged.cacheSize", "10000"));
+			documentHashes = new DocumentHashCache(cacheSize);
+		} else {
+			documentHashes = null;
+		}
+
+		// Test profile
+		final boolean testProfile = "test".equalsIgnoreCase(Play.configuration.getProperty("elasticsearch.profile"));
+		ElasticSearchAdapter.setRefreshOnWrite(testProfile || Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.refreshOnWrite", "false")));
 
 		// Make sure it doesn't get started more than once
 		if ((client != null) || started) {
 			Logger.debug("Elastic Search Started Already!");
+			bootstrapIndexesIfEager();
 			return;
 		}
 
 		// Start Node Builder
 		final Builder settings = ImmutableSettings.settingsBuilder();
-		// settings.put("client.transport.sniff", true);
+
+		// Transport client options
+		settings.put("client.transport.sniff", Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.client.sniff", "false")));
+		settings.put("client.transport.ping_timeout", Play.configuration.getProperty("elasticsearch.client.pingTimeout", "5s"));
+		settings.put("client.transport.nodes_sampler_interval", Play.configuration.getProperty("elasticsearch.client.samplerInterval", "5s"));
+
+		// Small, in-memory and isolated local node for fast test runs
+		localMode = this.isLocalMode();
+		if (localMode && testProfile) {
+			Logger.info("Using the Elastic Search test profile");
+			settings.put("index.store.type", "memory");
+			settings.put("index.number_of_shards", 1);
+			settings.put("index.number_of_replicas", 0);
+			settings.put("gateway.type", "none");
+			settings.put("http.enabled", false);
+			settings.put("discovery.zen.ping.multicast.enabled", false);
+		}
 
 		// Import anything from play configuration that starts with elasticsearch.native.
 		final Enumeration<Object> keys = Play.configuration.keys();
@@ -189,7 +427,7 @@ public class ElasticSearchPlugin extends PlayPlugin {
 		settings.build();
 
 		// Check Model
-		if (this.isLocalMode()) {
+		if (localMode) {
 			Logger.info("Starting Elastic Search for Play! in Local Mode");
 			final NodeBuilder nb = nodeBuilder().settings(settings).local(true).client(false).data(true);
 			final Node node = nb.node();
@@ -197,12 +435,11 @@ public class ElasticSearchPlugin extends PlayPlugin {
 
 		} else {
 			Logger.info("Connecting Play! to Elastic Search in Client Mode");
-			final TransportClient c = new TransportClient(settings);
 			if (Play.configuration.getProperty("elasticsearch.client") == null) {
 				throw new RuntimeException("Configuration required - elasticsearch.client when local model is disabled!");
 			}
 			final String[] hosts = getHosts().trim().split(",");
-			boolean done = false;
+			final List<InetSocketTransportAddress> addresses = new ArrayList<InetSocketTransportAddress>();
 			for (final String host : hosts) {
 				final String[] parts = host.split(":");
 				if (parts.length != 2) {
@@ -211,13 +448,31 @@ public class ElasticSearchPlugin extends PlayPlugin {
 				Logger.info("Transport Client - Host: %s Port: %s", parts[0], parts[1]);
 				if (Integer.valueOf(parts[1]) == 9200)
 					Logger.info("Note: Port 9200 is usually used by the HTTP Transport. You might want to use 9300 instead.");
-				c.addTransportAddress(new InetSocketTransportAddress(parts[0], Integer.valueOf(parts[1])));
-				done = true;
+				addresses.add(new InetSocketTransportAddress(parts[0], Integer.valueOf(parts[1])));
 			}
-			if (done == false) {
+			if (addresses.isEmpty()) {
 				throw new RuntimeException("No Hosts Provided for Elastic Search!");
 			}
-			client = c;
+
+			final String selector = Play.configuration.getProperty("elasticsearch.client.selector", "round_robin");
+			if ("least_latency".equalsIgnoreCase(selector)) {
+				// One client per node, sniffing would connect each of them to the whole cluster
+				settings.put("client.transport.sniff", false);
+				final List<NodeLatency> nodes = new ArrayList<NodeLatency>();
+				for (final InetSocketTransportAddress address : addresses) {
+					final TransportClient c = new TransportClient(settings);
+					c.addTransportAddress(address);
+					nodes.add(new NodeLatency(address.address().getHostName() + ":" + address.address().getPort(), c));
+				}
+				final TimeValue pingInterval = TimeValue.parseTimeValue(Play.configuration.getProperty("elasticsearch.client.pingInterval"), TimeValue.timeValueSeconds(5));
+				client = new LeastLatencyClient(nodes, pingInterval);
+			} else {
+				final TransportClient c = new TransportClient(settings);
+				for (final InetSocketTransportAddress address : addresses) {
+					c.addTransportAddress(address);
+				}
+				client = c;
+			}
 		}
 
 		// Configure current delivery mode
@@ -225,32 +480,142 @@ public class ElasticSearchPlugin extends PlayPlugin {
 
 		// Bind Admin
 		Router.addRoute("GET", "/es-admin", "elasticsearch.ElasticSearchAdmin.index");
+		Router.addRoute("GET", "/es-admin/metrics", "elasticsearch.ElasticSearchAdmin.metrics");
+		Router.addRoute("GET", "/es-admin/reindex", "elasticsearch.ElasticSearchAdmin.reindex");
+		Router.addRoute("GET", "/es-admin/dead-letters", "elasticsearch.ElasticSearchAdmin.deadLetters");
+		Router.addRoute("POST", "/es-admin/dead-letters/replay", "elasticsearch.ElasticSearchAdmin.replayDeadLetters");
+		Router.addRoute("POST", "/es-admin/dead-letters/discard", "elasticsearch.ElasticSearchAdmin.discardDeadLetters");
+		MetricsMBean.register();
 
 		// Check Client
 		if (client == null) {
 			throw new RuntimeException("Elastic Search Client cannot be null - please check the configuration provided and the health of your Elastic Search instances.");
 		}
+
+		bootstrapIndexesIfEager();
+	}
+
+	/**
+	 * Replays the journal, schedules the outbox relay and the delta reindex and resumes an interrupted reindex, once JPA
+	 * and the jobs plugin have started
+	 * 
+	 * @see play.PlayPlugin#afterApplicationStart()
+	 */
+	@Override
+	public void afterApplicationStart() {
+		if (journal != null && journal.isReplaying()) {
+			new JournalReplayJob(journal, Integer.parseInt(Play.configuration.getProperty("elasticsearch.journal.replayBatchSize", "500"))).now();
+		}
+		if (outbox) {
+			new OutboxRelayJob().every(Play.configuration.getProperty("elasticsearch.outbox.interval", "1s"));
+		}
+		if (ReindexDatabaseJob.hasCheckpoint() && Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.reindex.resume", "true"))) {
+			String delivery = Play.configuration.getProperty("elasticsearch.reindex.delivery");
+			new ReindexDatabaseJob(delivery == null ? null : ElasticSearchDeliveryMode.valueOf(delivery)).now();
+		}
+		String deltaInterval = Play.configuration.getProperty("elasticsearch.delta.interval");
+		if (deltaInterval != null) {
+			new DeltaReindexJob().every(deltaInterval);
+		}
+	}
+
+	/**
+	 * Adds an entity of the module to jpa.entities, so the JPA plugin maps it
+	 */
+	private static void registerEntity(Class<?> entity) {
+		String entities = Play.configuration.getProperty("jpa.entities", "").trim();
+		if (!entities.contains(entity.getName())) {
+			Play.configuration.setProperty("jpa.entities", entities.length() == 0 ? entity.getName() : entities + ", " + entity.getName());
+		}
+	}
+
+	/**
+	 * Creates the indexes and mappings of all searchable models up front if elasticsearch.bootstrap=eager, instead of
+	 * on the first index event of each model
+	 */
+	private static void bootstrapIndexesIfEager() {
+		if ("eager".equalsIgnoreCase(Play.configuration.getProperty("elasticsearch.bootstrap", "lazy"))) {
+			bootstrapIndexes();
+		}
+	}
+
+	/**
+	 * Creates the indexes and mappings of all searchable models
+	 */
+	private static void bootstrapIndexes() {
+		final TimeValue timeout = TimeValue.parseTimeValue(Play.configuration.getProperty("elasticsearch.bootstrap.timeout"), TimeValue.timeValueSeconds(30));
+		final Set<Class<?>> classes = new HashSet<Class<?>>(modelLookup.values());
+		final List<ModelMapper<?>> models = new ArrayList<ModelMapper<?>>();
+		for (final Class<?> clazz : classes) {
+			models.add(getMapper(clazz));
+		}
+
+		Logger.info("Starting Elastic Search indexes for %d classes", classes.size());
+		final long start = System.currentTimeMillis();
+		final Set<String> ready = ElasticSearchAdapter.startIndexes(client(), models, timeout);
+		for (final Class<?> clazz : classes) {
+			if (ready.contains(getMapper(clazz).getIndexName())) {
+				indicesStarted.add(clazz);
+			}
+		}
+		Logger.info("Elastic Search indexes %s started in %d ms", ready, System.currentTimeMillis() - start);
 	}
 
 	@SuppressWarnings("unchecked")
 	public static <M> ModelMapper<M> getMapper(final Class<M> clazz) {
-		if (mappers.containsKey(clazz)) {
-			return (ModelMapper<M>) mappers.get(clazz);
+		ModelMapper<M> mapper = (ModelMapper<M>) mappers.get(clazz);
+		if (mapper != null) {
+			return mapper;
 		}
 
-		final ModelMapper<M> mapper = mapperFactory.getMapper(clazz);
+		mapper = mapperFactory.getMapper(clazz);
 		mappers.put(clazz, mapper);
-		modelLookup.put(mapper.getTypeName(), clazz);
 
 		return mapper;
 	}
 
-	private static void startIndexIfNeeded(final Class<Model> clazz) {
-		if (!indicesStarted.contains(clazz)) {
-			final ModelMapper<Model> mapper = getMapper(clazz);
-			Logger.info("Start Index for Class: %s", clazz);
-			ElasticSearchAdapter.startIndex(client(), mapper);
-			indicesStarted.add(clazz);
+	/**
+	 * Builds the index type -> model class registry and the mappers of all searchable models, so that lookups never
+	 * have to scan the classloader
+	 */
+	private static void buildModelRegistry() {
+		final Map<String, Class<?>> lookup = new HashMap<String, Class<?>>();
+		for (final Class<?> clazz : Play.classloader.getAllClasses()) {
+			if (!Model.class.isAssignableFrom(clazz) || clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())
+					|| !MappingUtil.isSearchable(clazz)) {
+				continue;
+			}
+
+			final ModelMapper<?> mapper;
+			try {
+				mapper = getMapper(clazz);
+			} catch (final MappingException e) {
+				Logger.warn("Cannot map searchable class %s: %s", clazz.getName(), e.getMessage());
+				continue;
+			}
+
+			final Class<?> previous = lookup.put(mapper.getTypeName(), clazz);
+			if (previous != null) {
+				Logger.warn("Index type '%s' is used by both %s and %s, only the latter can be looked up", mapper.getTypeName(), previous.getName(), clazz.getName());
+			}
+		}
+		modelLookup = Collections.unmodifiableMap(lookup);
+		Logger.debug("Elastic Search model registry: %s", lookup);
+	}
+
+	static void startIndexIfNeeded(final Class<Model> clazz) {
+		if (indicesStarted.contains(clazz)) {
+			return;
+		}
+
+		// Only one thread creates the index, the others wait for it
+		synchronized (indicesStarted) {
+			if (!indicesStarted.contains(clazz)) {
+				final ModelMapper<Model> mapper = getMapper(clazz);
+				Logger.info("Start Index for Class: %s", clazz);
+				ElasticSearchAdapter.startIndex(client(), mapper);
+				indicesStarted.add(clazz);
+			}
 		}
 	}
 
@@ -265,20 +630,20 @@ public class ElasticSearchPlugin extends PlayPlugin {
 	 */
 	@Override
 	public void onEvent(final String message, final Object context) {
-		// Log Debug
-		Logger.debug("Received %s Event, Object: %s", message, context);
-
 		if (isInterestingEvent(message) == false) {
 			return;
 		}
 
-		Logger.debug("Processing %s Event", message);
-
 		// Check if object is searchable
 		if (MappingUtil.isSearchable(context.getClass()) == false) {
 			return;
 		}
 
+		// Log Debug (Logger formats its message even when debug is disabled)
+		if (Logger.isDebugEnabled()) {
+			Logger.debug("Processing %s Event, Object: %s", message, context);
+		}
+
 		// Sanity check, we only index models
 		Validate.isTrue(context instanceof Model, "Only play.db.Model subclasses can be indexed");
 
@@ -287,11 +652,23 @@ public class ElasticSearchPlugin extends PlayPlugin {
 		final Class<Model> clazz = (Class<Model>) context.getClass();
 		startIndexIfNeeded(clazz);
 
+		// Events are delivered once the transaction committed, the outbox is transactional already
+		final ElasticSearchDeliveryMode deliveryMode = getDeliveryMode();
+		final TransactionEventBuffer buffer = transactional && deliveryMode != ElasticSearchDeliveryMode.OUTBOX ? TransactionEventBuffer.get() : null;
+
 		// Define Event
 		ElasticSearchIndexEvent event = null;
 		if (message.endsWith(".objectPersisted") || message.endsWith(".objectUpdated")) {
+			// Drop the event if the indexed source did not change, unless the transaction changed it before
+			final Long hash = hashSource(clazz, (Model) context);
+			if ((buffer == null || !buffer.contains((Model) context)) && isUnchanged(clazz, (Model) context, hash)) {
+				Logger.debug("Skipping unchanged %s", context);
+				return;
+			}
+
 			// Index Model
 			event = new ElasticSearchIndexEvent((Model) context, ElasticSearchIndexEvent.Type.INDEX);
+			event.setSourceHash(hash);
 
 		} else if (message.endsWith(".objectDeleted")) {
 			// Delete Model from Index
@@ -301,18 +678,169 @@ public class ElasticSearchPlugin extends PlayPlugin {
 		// Sync with Elastic Search
 		Logger.info("Elastic Search Index Event: %s", event);
 		if (event != null) {
-			final ElasticSearchDeliveryMode deliveryMode = getDeliveryMode();
+			if (buffer != null) {
+				buffer.add(event);
+				return;
+			}
+
 			final IndexEventHandler handler = deliveryMode.getHandler();
+			documentQueued(event);
 			handler.handle(event);
 		}
 	}
 
+	/**
+	 * Hashes the source of a model, to compare it with the latest source queued for its document
+	 * 
+	 * @return the hash, null if documents are not hashed or the source cannot be built
+	 */
+	private static Long hashSource(final Class<Model> clazz, final Model model) {
+		if (documentHashes == null) {
+			return null;
+		}
+		try {
+			return Long.valueOf(ElasticSearchAdapter.hashSource(getMapper(clazz), model));
+		} catch (final Exception e) {
+			Logger.warn(ExceptionUtil.getStackTrace(e));
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if the source of a model is the same as the latest source queued for its document
+	 * 
+	 * @param clazz
+	 *            the model class
+	 * @param model
+	 *            the model
+	 * @param hash
+	 *            the hash of its source, may be null
+	 * @return true if the model does not need to be indexed again
+	 */
+	private static boolean isUnchanged(final Class<Model> clazz, final Model model, final Long hash) {
+		if (documentHashes == null || hash == null) {
+			return false;
+		}
+		final ModelMapper<Model> mapper = getMapper(clazz);
+		if (documentHashes.isUnchanged(mapper.getIndexName(), mapper.getTypeName(), mapper.getDocumentId(model), hash.longValue())) {
+			ElasticSearchMetrics.type(mapper.getTypeName()).skipped();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remembers the source of an event handed to delivery as the latest source of its document. Events are compared
+	 * with what is queued, not with what was acknowledged, since a queued event may still change the document: after
+	 * A, B and A again, the last A must not be dropped while B waits.
+	 * 
+	 * @param event
+	 *            the event, about to be handed to the delivery mode
+	 */
+	static void documentQueued(final ElasticSearchIndexEvent event) {
+		if (documentHashes == null) {
+			return;
+		}
+		final Model model = event.getObject();
+		@SuppressWarnings("unchecked")
+		final ModelMapper<Model> mapper = (ModelMapper<Model>) getMapper(model.getClass());
+		final String documentId = mapper.getDocumentId(model);
+		if (event.getType() == Type.INDEX && event.getSourceHash() != null) {
+			documentHashes.put(mapper.getIndexName(), mapper.getTypeName(), documentId, event.getSourceHash().longValue());
+		} else {
+			documentHashes.invalidate(mapper.getIndexName(), mapper.getTypeName(), documentId);
+		}
+	}
+
+	/**
+	 * Deletes all indexes and recreates the indexes of all searchable models, e.g. to isolate tests from each other.
+	 * Only allowed in local mode, since it wipes the whole cluster.
+	 */
+	public static void resetAll() {
+		if (!localMode) {
+			throw new IllegalStateException("Elastic Search indexes can only be reset in local mode");
+		}
+
+		client.admin().indices().prepareDelete("_all").execute().actionGet();
+		indicesStarted.clear();
+		ElasticSearchAdapter.clearMappingCache();
+		if (fieldHashes != null) {
+			fieldHashes.clear();
+		}
+		if (documentHashes != null) {
+			documentHashes.clear();
+		}
+		bootstrapIndexes();
+	}
+
+	/**
+	 * Gets the status of the plugin, shown by "play status"
+	 * 
+	 * @see play.PlayPlugin#getStatus()
+	 */
+	@Override
+	public String getStatus() {
+		final StringWriter sw = new StringWriter();
+		final PrintWriter out = new PrintWriter(sw);
+		out.println("Elastic Search:");
+		out.println("~~~~~~~~~~~~~~~");
+
+		if (documentHashes != null) {
+			out.println(String.format("Unchanged documents skipped: %d of %d (%.1f%%)", documentHashes.getSkipped(), documentHashes.getChecked(), documentHashes.getSkipRate() * 100));
+		}
+		if (versioning != ElasticSearchVersioning.NONE) {
+			out.println("Stale writes rejected: " + ElasticSearchIndexAction.getVersionConflicts());
+		}
+		out.println("Queued events: " + ElasticSearchMetrics.getQueueDepth());
+		out.println(String.format("Queued batches: %d live, %d reindex", ElasticSearchIndexer.getLanes().getLiveDepth(), ElasticSearchIndexer.getLanes().getReindexDepth()));
+		out.println(String.format("Bulk size: %d, concurrency: %d of %d", bulkLimit.getBulkSize(), bulkLimit.getConcurrency(), bulkLimit.getMaxConcurrency()));
+		final ReindexProgress reindex = ReindexDatabaseJob.getProgress();
+		if (reindex != null && reindex.isRunning()) {
+			out.println(String.format("Reindex: %d of %d, %.0f/s, ETA %d s", reindex.getDone(), reindex.getTotal(), reindex.getRate(), reindex.getEta()));
+		}
+		if (journal != null) {
+			out.println("Journaled events: " + journal.getPending() + (journal.isReplaying() ? " (replaying)" : ""));
+		}
+		for (final Map.Entry<String, TypeMetrics> type : ElasticSearchMetrics.getTypes().entrySet()) {
+			final TypeMetrics metrics = type.getValue();
+			out.println(String.format("%s: %d indexed, %d deleted, %d skipped, %d retried, %d failed", type.getKey(), metrics.getIndexed(), metrics.getDeleted(),
+					metrics.getSkipped(), metrics.getRetried(), metrics.getFailed()));
+		}
+		final Histogram lag = ElasticSearchMetrics.getLag();
+		if (lag.getCount() > 0) {
+			out.println(String.format("Event lag: p50 %.1f ms, p99 %.1f ms, p999 %.1f ms", lag.getPercentile(0.5) / 1e6, lag.getPercentile(0.99) / 1e6, lag.getPercentile(0.999) / 1e6));
+		}
+		if (client instanceof LeastLatencyClient) {
+			out.println("Nodes:");
+			for (final NodeLatency node : ((LeastLatencyClient) client).getNodes()) {
+				out.println("  " + node);
+			}
+		} else if (client instanceof TransportClient) {
+			out.println("Connected nodes: " + ((TransportClient) client).connectedNodes().size());
+		}
+		return sw.toString();
+	}
+
 	<M extends Model> void index(final M model) {
 		final ElasticSearchDeliveryMode deliveryMode = getDeliveryMode();
 		index(model, deliveryMode);
 	}
 
 	public <M extends Model> void index(final M model, final ElasticSearchDeliveryMode deliveryMode) {
+		index(model, deliveryMode, false);
+	}
+
+	public <M extends Model> void index(final M model, final ElasticSearchDeliveryMode deliveryMode, final boolean refresh) {
+		index(model, deliveryMode, refresh, Priority.LIVE);
+	}
+
+	/**
+	 * Indexes a model
+	 * 
+	 * @param priority
+	 *            the lane of the LOCAL indexer, REINDEX for reindex jobs
+	 */
+	public <M extends Model> void index(final M model, final ElasticSearchDeliveryMode deliveryMode, final boolean refresh, final Priority priority) {
 		@SuppressWarnings("unchecked")
 		final Class<Model> clazz = (Class<Model>) model.getClass();
 
@@ -323,33 +851,64 @@ public class ElasticSearchPlugin extends PlayPlugin {
 
 		startIndexIfNeeded(clazz);
 
-		final ElasticSearchIndexEvent event = new ElasticSearchIndexEvent(model, Type.INDEX);
+		final ElasticSearchIndexEvent event = new ElasticSearchIndexEvent(model, Type.INDEX, refresh, priority);
 		final IndexEventHandler handler = deliveryMode.getHandler();
+		documentQueued(event);
 		handler.handle(event);
 	}
 
 	/**
-	 * Looks up the model class based on the index type name
+	 * Indexes models as one batch, which {@link BulkIndexEventHandler}s send as a single bulk request. Other handlers
+	 * receive the events one by one.
+	 * 
+	 * @param models
+	 *            the models, in the order they are sent
+	 * @param priority
+	 *            the lane of the LOCAL indexer, REINDEX for reindex jobs
+	 */
+	public void index(final List<? extends Model> models, final ElasticSearchDeliveryMode deliveryMode, final Priority priority) {
+		if (models.isEmpty()) {
+			return;
+		}
+
+		final List<ElasticSearchIndexEvent> events = new ArrayList<ElasticSearchIndexEvent>(models.size());
+		for (final Model model : models) {
+			@SuppressWarnings("unchecked")
+			final Class<Model> clazz = (Class<Model>) model.getClass();
+			if (MappingUtil.isSearchable(clazz) == false) {
+				throw new IllegalArgumentException("model is not searchable");
+			}
+			startIndexIfNeeded(clazz);
+
+			// Remember the source like live events do, so an unchanged save after the reindex is skipped
+			final ElasticSearchIndexEvent event = new ElasticSearchIndexEvent(model, Type.INDEX, false, priority);
+			event.setSourceHash(hashSource(clazz, model));
+			documentQueued(event);
+			events.add(event);
+		}
+
+		final IndexEventHandler handler = deliveryMode.getHandler();
+		if (handler instanceof BulkIndexEventHandler) {
+			((BulkIndexEventHandler) handler).handle(events);
+		} else {
+			for (final ElasticSearchIndexEvent event : events) {
+				handler.handle(event);
+			}
+		}
+	}
+
+	/**
+	 * Looks up the model class based on the index type name, using the registry built on application start
 	 * 
 	 * @param indexType
 	 * @return Class of the Model
 	 */
 	public static Class<?> lookupModel(final String indexType) {
 		final Class<?> clazz = modelLookup.get(indexType);
-		if (clazz != null) { // we have not cached this model yet
-			return clazz;
-		}
-		final List<Class> searchableModels = Play.classloader.getAnnotatedClasses(ElasticSearchable.class);
-		for (final Class searchableModel : searchableModels) {
-			try {
-				if (indexType.equals(getMapper(searchableModel).getTypeName())) {
-					return searchableModel;
-				}
-			} catch (final MappingException ex) {
-				// mapper can not be retrieved
-			}
+		if (clazz == null) {
+			throw new IllegalArgumentException("Type name '" + indexType + "' is not searchable!");
 		}
-		throw new IllegalArgumentException("Type name '" + indexType + "' is not searchable!");
+		return clazz;
 	}
 
 }
@@ -0,0 +1,121 @@
+package play.modules.elasticsearch;
+
+import java.lang.reflect.Field;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.Version;
+
+import play.db.Model;
+import play.modules.elasticsearch.util.ReflectionUtil;
+
+/**
+ * Strategies for external document versioning.
+ *
+ * <p>
+ * With external versioning every write carries a version, and Elastic Search rejects writes which are older than the indexed document. This makes it safe to deliver index events out of order, e.g. in parallel or through RabbitMQ. Configure it in conf/application.conf with
+ * elasticsearch.versioning=NONE|FIELD|TIMESTAMP
+ */
+public enum ElasticSearchVersioning {
+
+	/** Writes carry no version, the last write wins. */
+	NONE {
+		@Override
+		public Long getVersion(final Model model, final long timestamp) {
+			return null;
+		}
+	},
+
+	/** Use the JPA {@link Version} field of the model. Models without one are written without a version. */
+	FIELD {
+		@Override
+		public Long getVersion(final Model model, final long timestamp) {
+			final Field field = getVersionField(model.getClass());
+			if (field == null) {
+				return null;
+			}
+
+			try {
+				final Object value = field.get(model);
+				if (value instanceof Number) {
+					return Long.valueOf(((Number) value).longValue());
+				} else if (value instanceof Date) {
+					return Long.valueOf(((Date) value).getTime());
+				}
+			} catch (final IllegalAccessException e) {
+				throw new IllegalStateException("Cannot read version field " + field, e);
+			}
+			// Timestamps would not compare with the counters of other events
+			return null;
+		}
+	},
+
+	/** Use the time at which the index event was created. */
+	TIMESTAMP {
+		@Override
+		public Long getVersion(final Model model, final long timestamp) {
+			return Long.valueOf(timestamp);
+		}
+	};
+
+	/** The version field of every model class, an empty list for classes without one */
+	private static final ConcurrentMap<Class<?>, List<Field>> versionFields = new ConcurrentHashMap<Class<?>, List<Field>>();
+
+	/**
+	 * Gets the version of a model in its current state. Called when an index event is created, so a queued event
+	 * keeps the version of the state it was created for.
+	 *
+	 * @param model
+	 *            the model
+	 * @param timestamp
+	 *            the time at which the event was created
+	 * @return the version, or null if the write is not versioned
+	 */
+	public abstract Long getVersion(Model model, long timestamp);
+
+	/**
+	 * Gets the version to write for an index event
+	 *
+	 * @param event
+	 *            the index event
+	 * @return the version captured when the event was created, or null if the write is not versioned
+	 */
+	public Long getVersion(final ElasticSearchIndexEvent event) {
+		return this == NONE ? null : event.getVersion();
+	}
+
+	/**
+	 * Gets the version to write for the delete of a document whose model is gone, so a delayed delete cannot remove
+	 * a newer write. FIELD versions cannot be read back from a deleted model, so without a captured version the delete
+	 * is not versioned, a timestamp would not compare with the counters of other events.
+	 *
+	 * @param reference
+	 *            the document
+	 * @return the version captured for its event, else the time of its event for TIMESTAMP, null if the write is not
+	 *         versioned
+	 */
+	public Long getDeleteVersion(final DocumentReference reference) {
+		if (this == NONE) {
+			return null;
+		}
+		if (reference.getVersion() != null) {
+			return reference.getVersion();
+		}
+		return this == TIMESTAMP ? Long.valueOf(reference.getTimestamp()) : null;
+	}
+
+	private static Field getVersionField(final Class<?> clazz) {
+		List<Field> fields = versionFields.get(clazz);
+		if (fields == null) {
+			fields = ReflectionUtil.getFieldsWithAnnotation(clazz, Version.class);
+			for (final Field field : fields) {
+				field.setAccessible(true);
+			}
+			versionFields.put(clazz, fields);
+		}
+		return fields.isEmpty() ? null : fields.get(0);
+	}
+
+}
@@ -0,0 +1,219 @@
+package play.modules.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import play.db.Model;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Priority;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+
+/**
+ * The queue of the LOCAL indexer, with one lane for live events and one for reindexing.
+ *
+ * <p>
+ * Bulks are taken from one lane at a time. Live events go first: a reindex bulk is only taken when no live event waits,
+ * or after a run of liveWeight live bulks, so a busy application does not stop reindexing altogether. The reindex lane
+ * is small and can be limited to a rate, so a reindex job waits instead of filling the memory and the cluster.
+ *
+ * <p>
+ * Since live bulks overtake reindex bulks, a reindex event is dropped if a live event of its document was queued at
+ * the same time or later, it could only overwrite the live write with an older state.
+ */
+public class IndexLanes {
+
+	/** Maximum number of queued live batches */
+	private final int liveCapacity;
+
+	/** Maximum number of queued reindex batches */
+	private final int reindexCapacity;
+
+	/** Batches of live events */
+	private final LinkedList<List<ElasticSearchIndexEvent>> live = new LinkedList<List<ElasticSearchIndexEvent>>();
+
+	/** Batches of reindex events */
+	private final LinkedList<List<ElasticSearchIndexEvent>> reindex = new LinkedList<List<ElasticSearchIndexEvent>>();
+
+	/** Number of live bulks taken in a row while reindex events waited */
+	private int liveRun;
+
+	/** Number of live bulks taken in a row before a waiting reindex bulk, 0 to take reindex bulks only when idle */
+	private int liveWeight = 4;
+
+	/** Maximum number of reindex events per second, 0 for no limit */
+	private double reindexRate = 0;
+
+	/** The earliest time of the next reindex bulk, in nanoseconds */
+	private long nextReindex = System.nanoTime();
+
+	/** Time of the latest live event by document, kept while reindex events are queued or wait to be queued */
+	private final Map<String, Long> liveWrites = new HashMap<String, Long>();
+
+	/** Number of reindex batches being queued */
+	private int reindexPuts;
+
+	/**
+	 * Instantiates new lanes.
+	 *
+	 * @param liveCapacity
+	 *            maximum number of queued live batches
+	 * @param reindexCapacity
+	 *            maximum number of queued reindex batches
+	 */
+	public IndexLanes(int liveCapacity, int reindexCapacity) {
+		this.liveCapacity = liveCapacity;
+		this.reindexCapacity = reindexCapacity;
+	}
+
+	/**
+	 * Sets how the lanes share the indexer
+	 *
+	 * @param liveWeight
+	 *            number of live bulks taken in a row before a waiting reindex bulk, 0 to take reindex bulks only when
+	 *            no live event waits
+	 * @param reindexRate
+	 *            maximum number of reindex events per second, 0 for no limit
+	 */
+	public synchronized void configure(int liveWeight, double reindexRate) {
+		this.liveWeight = Math.max(0, liveWeight);
+		this.reindexRate = Math.max(0, reindexRate);
+		notifyAll();
+	}
+
+	/**
+	 * Queues a batch of events in the lane of its first event, waiting while the lane is full
+	 *
+	 * @param events
+	 *            the batch, sent in the same bulk request
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public synchronized void put(List<ElasticSearchIndexEvent> events) throws InterruptedException {
+		boolean isReindex = !events.isEmpty() && events.get(0).getPriority() == Priority.REINDEX;
+		LinkedList<List<ElasticSearchIndexEvent>> lane = isReindex ? reindex : live;
+		int capacity = isReindex ? reindexCapacity : liveCapacity;
+		if (isReindex) {
+			reindexPuts++;
+		}
+		try {
+			while (lane.size() >= capacity) {
+				wait();
+			}
+		} finally {
+			if (isReindex) {
+				reindexPuts--;
+			}
+		}
+		if (!isReindex && (!reindex.isEmpty() || reindexPuts > 0)) {
+			for (ElasticSearchIndexEvent event : events) {
+				String key = key(event);
+				if (key != null) {
+					liveWrites.put(key, Long.valueOf(event.getTimestamp()));
+				}
+			}
+		}
+		lane.add(events);
+		notifyAll();
+	}
+
+	/**
+	 * Takes the next bulk, waiting until a lane may send
+	 *
+	 * @param maxSize
+	 *            the bulk size, exceeded only by a single batch
+	 * @return the events of the bulk, all from the same lane
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public synchronized List<ElasticSearchIndexEvent> take(int maxSize) throws InterruptedException {
+		while (true) {
+			long now = System.nanoTime();
+			boolean reindexReady = !reindex.isEmpty() && now - nextReindex >= 0;
+			if (!live.isEmpty() && (!reindexReady || liveWeight == 0 || liveRun < liveWeight)) {
+				liveRun = reindex.isEmpty() ? 0 : liveRun + 1;
+				return drain(live, maxSize);
+			}
+			if (reindexReady) {
+				liveRun = 0;
+				List<ElasticSearchIndexEvent> bulk = withoutOverwritten(drain(reindex, maxSize));
+				if (reindex.isEmpty() && reindexPuts == 0) {
+					liveWrites.clear();
+				}
+				if (bulk.isEmpty()) {
+					continue;
+				}
+				if (reindexRate > 0) {
+					nextReindex = now + (long) (bulk.size() * TimeUnit.SECONDS.toNanos(1) / reindexRate);
+				}
+				return bulk;
+			}
+			if (reindex.isEmpty()) {
+				wait();
+			} else {
+				// Throttled, wake up for the next reindex bulk unless a live event comes first
+				wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextReindex - now)));
+			}
+		}
+	}
+
+	private List<ElasticSearchIndexEvent> drain(LinkedList<List<ElasticSearchIndexEvent>> lane, int maxSize) {
+		List<ElasticSearchIndexEvent> bulk = new ArrayList<ElasticSearchIndexEvent>(lane.removeFirst());
+		while (!lane.isEmpty() && bulk.size() < maxSize) {
+			bulk.addAll(lane.removeFirst());
+		}
+		notifyAll();
+		return bulk;
+	}
+
+	/**
+	 * Drops the reindex events of documents which had a live event since, and counts them as skipped
+	 */
+	private List<ElasticSearchIndexEvent> withoutOverwritten(List<ElasticSearchIndexEvent> bulk) {
+		if (liveWrites.isEmpty()) {
+			return bulk;
+		}
+		List<ElasticSearchIndexEvent> kept = new ArrayList<ElasticSearchIndexEvent>(bulk.size());
+		for (ElasticSearchIndexEvent event : bulk) {
+			String key = key(event);
+			Long live = key == null ? null : liveWrites.get(key);
+			if (live == null || live.longValue() < event.getTimestamp()) {
+				kept.add(event);
+				continue;
+			}
+			Model object = event.getObject();
+			@SuppressWarnings("unchecked")
+			ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(object.getClass());
+			ElasticSearchMetrics.type(mapper.getTypeName()).skipped();
+			ElasticSearchMetrics.eventProcessed(event.getTimestamp(), false);
+			PendingWrites.processed(event);
+		}
+		return kept;
+	}
+
+	/**
+	 * Gets the document of an event by class and key, the way the indexer tells bulks apart
+	 */
+	private static String key(ElasticSearchIndexEvent event) {
+		Model object = event.getObject();
+		return object == null ? null : object.getClass().getName() + "#" + object._key();
+	}
+
+	/**
+	 * Gets the number of queued live batches
+	 */
+	public synchronized int getLiveDepth() {
+		return live.size();
+	}
+
+	/**
+	 * Gets the number of queued reindex batches
+	 */
+	public synchronized int getReindexDepth() {
+		return reindex.size();
+	}
+
+}
@@ -1,20 +1,73 @@
 package play.modules.elasticsearch;
 
+import java.io.IOException;
+import java.util.List;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Priority;
+import play.modules.elasticsearch.journal.IndexJournal;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+
 /**
- * Handler which processes events locally
+ * Handler which processes events locally. If the journal is enabled, live events are appended to it before they are
+ * queued. Reindex events are not journaled, the reindex job sends them again.
  */
-public class LocalIndexEventHandler implements IndexEventHandler {
+public class LocalIndexEventHandler implements BulkIndexEventHandler {
 
 	/** Flag that indicates if the indexer has been started */
 	private static boolean indexerStarted = false;
 
 	@Override
 	public void handle(ElasticSearchIndexEvent event) {
+		startIndexer();
+		ElasticSearchMetrics.eventQueued();
+		PendingWrites.queued(event);
+		IndexJournal journal = ElasticSearchPlugin.getJournal();
+		if (journal == null || event.getPriority() == Priority.REINDEX) {
+			ElasticSearchIndexer.publish(event);
+			return;
+		}
+
+		// The indexer acknowledges events in the order they were appended
+		synchronized (journal) {
+			append(journal, event);
+			ElasticSearchIndexer.publish(event);
+		}
+	}
+
+	@Override
+	public void handle(List<ElasticSearchIndexEvent> events) {
+		startIndexer();
+		for (ElasticSearchIndexEvent event : events) {
+			ElasticSearchMetrics.eventQueued();
+			PendingWrites.queued(event);
+		}
+		IndexJournal journal = ElasticSearchPlugin.getJournal();
+		if (journal == null || events.isEmpty() || events.get(0).getPriority() == Priority.REINDEX) {
+			ElasticSearchIndexer.publish(events);
+			return;
+		}
+
+		synchronized (journal) {
+			for (ElasticSearchIndexEvent event : events) {
+				append(journal, event);
+			}
+			ElasticSearchIndexer.publish(events);
+		}
+	}
+
+	private static void append(IndexJournal journal, ElasticSearchIndexEvent event) {
+		try {
+			journal.append(event);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot append " + event + " to the journal", e);
+		}
+	}
+
+	private static synchronized void startIndexer() {
 		if (indexerStarted == false) {
 			new ElasticSearchIndexer().now();
 			indexerStarted = true;
 		}
-		ElasticSearchIndexer.stream.publish(event);
 	}
 
 	static void markIndexerStarted() {
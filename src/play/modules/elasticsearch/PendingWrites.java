@@ -0,0 +1,124 @@
+package play.modules.elasticsearch;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import play.db.Model;
+import play.modules.elasticsearch.mapping.ModelMapper;
+
+/**
+ * Documents with index events which the handlers of this JVM took on and did not process yet.
+ *
+ * <p>
+ * A write is processed once Elastic Search answered it, so a document without pending events shows its latest
+ * write to realtime gets, and to searches after the next refresh. This is what {@link Query#waitFor(String...)}
+ * waits for, whether the write created, updated or deleted the document.
+ */
+public abstract class PendingWrites {
+
+	/** Number of pending events by index/type/id */
+	private static final Map<String, Integer> documents = new HashMap<String, Integer>();
+
+	private PendingWrites() {
+		// No public instantiation allowed
+	}
+
+	/**
+	 * Counts an event taken on by a handler of this JVM
+	 */
+	static void queued(ElasticSearchIndexEvent event) {
+		queued(key(event));
+	}
+
+	/**
+	 * Counts a retry scheduled by the {@link RetryPolicy}
+	 */
+	static void queued(DocumentReference reference) {
+		queued(key(reference));
+	}
+
+	private static void queued(String key) {
+		synchronized (documents) {
+			Integer count = documents.get(key);
+			documents.put(key, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+		}
+	}
+
+	/**
+	 * Counts an event answered by Elastic Search, or given up on
+	 */
+	static void processed(ElasticSearchIndexEvent event) {
+		processed(key(event));
+	}
+
+	/**
+	 * Counts a retry which is done
+	 */
+	static void processed(DocumentReference reference) {
+		processed(key(reference));
+	}
+
+	private static void processed(String key) {
+		synchronized (documents) {
+			Integer count = documents.get(key);
+			if (count == null || count.intValue() <= 1) {
+				documents.remove(key);
+			} else {
+				documents.put(key, Integer.valueOf(count.intValue() - 1));
+			}
+		}
+	}
+
+	/**
+	 * Checks if a document has pending events
+	 */
+	public static boolean isPending(String indexName, String typeName, String documentId) {
+		synchronized (documents) {
+			return documents.containsKey(key(indexName, typeName, documentId));
+		}
+	}
+
+	/**
+	 * Waits until documents have no pending events
+	 *
+	 * @param mapper
+	 *            the model mapper of the documents
+	 * @param documentIds
+	 *            the ids of the documents to wait for
+	 * @param timeout
+	 *            the maximum time to wait, in milliseconds
+	 * @return true if no document has pending events, false if the timeout passed first
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public static boolean await(ModelMapper<?> mapper, Collection<String> documentIds, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		for (String documentId : documentIds) {
+			while (isPending(mapper.getIndexName(), mapper.getTypeName(), documentId)) {
+				if (System.currentTimeMillis() >= deadline) {
+					return false;
+				}
+				Thread.sleep(10);
+			}
+		}
+		return true;
+	}
+
+	private static String key(ElasticSearchIndexEvent event) {
+		Model model = event.getObject();
+		@SuppressWarnings("unchecked")
+		ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(model.getClass());
+		return key(mapper.getIndexName(), mapper.getTypeName(), mapper.getDocumentId(model));
+	}
+
+	private static String key(DocumentReference reference) {
+		ModelMapper<?> mapper = ElasticSearchPlugin.getMapper(ElasticSearchPlugin.lookupModel(reference.getType()));
+		return key(mapper.getIndexName(), reference.getType(), reference.getDocumentId());
+	}
+
+	private static String key(String indexName, String typeName, String documentId) {
+		return indexName + "/" + typeName + "/" + documentId;
+	}
+
+}
@@ -1,7 +1,9 @@
 package play.modules.elasticsearch;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.Validate;
 import org.elasticsearch.action.search.SearchRequestBuilder;
@@ -14,10 +16,17 @@ import org.elasticsearch.search.sort.SortOrder;
 
 import play.Logger;
 import play.db.Model;
+import play.modules.elasticsearch.adapter.ElasticSearchAdapter;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics.Operation;
+import play.modules.elasticsearch.metrics.SearchMetrics;
+import play.modules.elasticsearch.metrics.SearchMetrics.Phase;
 import play.modules.elasticsearch.search.SearchResults;
 import play.modules.elasticsearch.transformer.JPATransformer;
 import play.modules.elasticsearch.transformer.MapperTransformer;
 import play.modules.elasticsearch.transformer.SimpleTransformer;
+import play.modules.elasticsearch.util.ExceptionUtil;
 
 /**
  * An elastic search query
@@ -38,6 +47,10 @@ public class Query<T extends Model> {
 	private boolean hydrate = false;
 	private boolean useMapper = false;
 
+	private final List<String> waitFor = new ArrayList<String>();
+
+	private String[] routing = null;
+
 	Query(Class<T> clazz, QueryBuilder builder) {
 		Validate.notNull(clazz, "clazz cannot be null");
 		Validate.notNull(builder, "builder cannot be null");
@@ -144,12 +157,61 @@ public class Query<T extends Model> {
 		return this;
 	}
 
+	/**
+	 * Only searches the shards holding documents with the given routing values, see
+	 * {@link play.modules.elasticsearch.annotations.ElasticSearchRouting}
+	 * 
+	 * @param routing
+	 *            the routing values, e.g. a tenant id
+	 * @return self
+	 */
+	public Query<T> routing(String... routing) {
+		Validate.notEmpty(routing, "routing cannot be empty");
+		Validate.noNullElements(routing, "routing cannot contain null");
+		this.routing = routing;
+
+		return this;
+	}
+
+	/**
+	 * Makes the query see recent writes of documents. Before the query runs, it waits until the documents have been
+	 * written and then refreshes their index. With the LOCAL and SYNCHRONOUS delivery modes this covers creates,
+	 * updates and deletes. Other delivery modes send the events from elsewhere, so only the creation of documents can be
+	 * waited for. Concurrent queries share refreshes, so the index is refreshed at most once
+	 * per elasticsearch.waitFor.refreshInterval. Documents of models with routing are looked up with the routing value of
+	 * the query, so a query which waits for documents can have at most one {@link #routing(String...)} value.
+	 * 
+	 * <p>
+	 * With elasticsearch.transactional=true the events of a transaction are only queued when it commits, so only writes
+	 * of committed transactions are waited for. A query in the transaction which saved the documents does not see them.
+	 * 
+	 * @param documentIds
+	 *            the ids of the written documents
+	 * @return self
+	 */
+	public Query<T> waitFor(String... documentIds) {
+		Validate.noNullElements(documentIds, "documentIds cannot contain null");
+		waitFor.addAll(Arrays.asList(documentIds));
+
+		return this;
+	}
+
 	/**
 	 * Runs the query
 	 * 
 	 * @return the search results
 	 */
 	public SearchResults<T> fetch() {
+		if (!waitFor.isEmpty()) {
+			// A realtime get takes one routing value, and the mapping requires it for routed types
+			if (routing != null && routing.length > 1) {
+				throw new IllegalStateException("waitFor cannot be combined with several routing values, query the documents of one routing value at a time");
+			}
+			awaitWrites();
+		}
+
+		long start = System.nanoTime();
+
 		// Build request
 		SearchRequestBuilder request = ElasticSearch.builder(builder, clazz);
 
@@ -163,6 +225,11 @@ public class Query<T extends Model> {
 			request.addSort(sort);
 		}
 
+		// Routing
+		if (routing != null) {
+			request.setRouting(routing);
+		}
+
 		// Paging
 		if (from > -1) {
 			request.setFrom(from);
@@ -180,15 +247,84 @@ public class Query<T extends Model> {
 			Logger.debug("ES Query: %s", builder.toString());
 		}
 
+		long built = System.nanoTime();
 		SearchResponse searchResponse = request.execute().actionGet();
+		long executed = System.nanoTime();
+
 		SearchResults<T> searchResults = null;
+		long hydration = 0;
 		if (hydrate) {
-			searchResults = new JPATransformer<T>().toSearchResults(searchResponse, clazz);
+			JPATransformer<T> transformer = new JPATransformer<T>();
+			searchResults = transformer.toSearchResults(searchResponse, clazz);
+			hydration = transformer.getHydrationNanos();
 		} else if (useMapper) {
 			searchResults = new MapperTransformer<T>().toSearchResults(searchResponse, clazz);
 		} else {
 			searchResults = new SimpleTransformer<T>().toSearchResults(searchResponse, clazz);
 		}
+
+		// Metrics must not fail the search
+		try {
+			record(request, searchResponse, start, built, executed, hydration, System.nanoTime());
+		} catch (Exception e) {
+			Logger.error("Cannot record the metrics of an Elastic Search query: %s", ExceptionUtil.getStackTrace(e));
+		}
 		return searchResults;
 	}
+
+	/**
+	 * Waits for the documents to be written and refreshes their index. Writes handled by this JVM are written once
+	 * Elastic Search answered all their events. Writes delivered by another JVM, e.g. through RabbitMQ, can only be
+	 * seen once the documents exist.
+	 */
+	private void awaitWrites() {
+		ModelMapper<T> mapper = ElasticSearchPlugin.getMapper(clazz);
+		try {
+			IndexEventHandler handler = ElasticSearchPlugin.getDeliveryMode().getHandler();
+			long timeout = ElasticSearchPlugin.getWaitForTimeout();
+			boolean written;
+			if (handler instanceof LocalIndexEventHandler || handler instanceof SynchronousIndexEventHandler) {
+				written = PendingWrites.await(mapper, waitFor, timeout);
+			} else {
+				String documentRouting = routing != null ? routing[0] : null;
+				written = ElasticSearchAdapter.awaitDocuments(ElasticSearchPlugin.client(), mapper, waitFor, documentRouting, timeout);
+			}
+			if (!written) {
+				Logger.warn("Not all of the documents %s of %s were written in time, querying anyway", waitFor, mapper.getTypeName());
+			}
+			ElasticSearchPlugin.getRefreshCoalescer().refresh(ElasticSearchPlugin.client(), mapper.getIndexName());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for documents " + waitFor, e);
+		}
+	}
+
+	/**
+	 * Records the phases of a fetch, and logs it if it was slow
+	 */
+	private void record(SearchRequestBuilder request, SearchResponse response, long start, long built, long executed, long hydration, long end) {
+		String typeName = ElasticSearchPlugin.getMapper(clazz).getTypeName();
+		SearchMetrics metrics = ElasticSearchMetrics.search(typeName);
+		long took = TimeUnit.MILLISECONDS.toNanos(response.getTookInMillis());
+		long network = Math.max(0, executed - built - took);
+		long transform = end - executed - hydration;
+
+		metrics.record(Phase.BUILD, built - start);
+		metrics.record(Phase.TOOK, took);
+		metrics.record(Phase.NETWORK, network);
+		metrics.record(Phase.TRANSFORM, transform);
+		if (hydrate) {
+			metrics.record(Phase.HYDRATION, hydration);
+		}
+		metrics.record(Phase.TOTAL, end - start);
+		ElasticSearchMetrics.recordCall(Operation.SEARCH, executed - built);
+
+		long threshold = ElasticSearchPlugin.getSlowQueryThreshold();
+		if (threshold >= 0 && end - start >= TimeUnit.MILLISECONDS.toNanos(threshold)) {
+			metrics.slow();
+			Logger.warn("Slow Elastic Search query on %s: %.1f ms (build %.1f ms, took %d ms, network %.1f ms, transform %.1f ms, hydration %.1f ms), %d hits: %s",
+					typeName, (end - start) / 1e6, (built - start) / 1e6, response.getTookInMillis(), network / 1e6, transform / 1e6, hydration / 1e6,
+					response.getHits().totalHits(), request);
+		}
+	}
 }
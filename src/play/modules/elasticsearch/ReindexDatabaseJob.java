@@ -1,26 +1,79 @@
 package play.modules.elasticsearch;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
 import javax.persistence.metamodel.ManagedType;
 
+import org.hibernate.CacheMode;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 
 import play.Logger;
+import play.Play;
+import play.data.binding.Binder;
 import play.db.Model;
 import play.db.Model.Factory;
 import play.db.jpa.JPA;
 import play.jobs.Job;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Priority;
+import play.modules.elasticsearch.ReindexProgress.TypeProgress;
+import play.modules.elasticsearch.annotations.ElasticSearchModifiedAt;
+import play.modules.elasticsearch.mapping.AssociationPrefetcher;
+import play.modules.elasticsearch.mapping.MappingException;
 import play.modules.elasticsearch.mapping.MappingUtil;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+import play.modules.elasticsearch.util.RateLimiter;
+import play.modules.elasticsearch.util.ReflectionUtil;
 
+/**
+ * Reindexes all searchable models, streamed in the order of their keys with one forward-only cursor per model, read
+ * elasticsearch.reindex.fetchSize rows at a time. Loaded models are detached page by page, so memory use does not
+ * depend on the table size.
+ * 
+ * <p>
+ * The last key of every type is saved in a checkpoint file once Elastic Search answered the documents of a page, so a
+ * reindex which was interrupted, e.g. by a restart, continues where it stopped without skipping pages which were
+ * still queued in memory. A page counts as answered once none of its documents has a {@link PendingWrites pending
+ * write}, which is right away for delivery modes which hand the events to a durable queue. The checkpoint is deleted
+ * when the reindex finishes. Documents and database queries per second can be limited with
+ * elasticsearch.reindex.maxDocsPerSecond and elasticsearch.reindex.maxQueriesPerSecond, where every fetch of the
+ * cursor and every query loading associations counts as a query.
+ * 
+ * <p>
+ * A delta reindex only sends the models modified after a given time, by their {@link ElasticSearchModifiedAt} field.
+ * It is sent in the same key-ordered pages, one batch per page, but does not use the checkpoint, it is cheap to run
+ * again.
+ */
 public class ReindexDatabaseJob extends Job<Void> {
 
-	// Fetch chunks of this size from DB
+	// Send, checkpoint and detach chunks of this size
 	private static final int PAGE_SIZE = 256;
 
+	/** Longest wait for the documents of a page at the end of a type, in milliseconds */
+	private static final long ACKNOWLEDGE_TIMEOUT = 60000;
+
+	/** Progress of the running or last reindex, null before the first one */
+	private static volatile ReindexProgress progress;
+
+	/** Whether a reindex is running, only one runs at a time */
+	private static boolean running = false;
+
 	private final ElasticSearchDeliveryMode deliveryMode;
 
+	/** Only models modified after this time are sent, null for all */
+	private final Date modifiedSince;
+
 	/**
 	 * Default constructor which creates a job which reindexes all entities in the database in one thread.
 	 */
@@ -36,47 +89,298 @@ public class ReindexDatabaseJob extends Job<Void> {
 	 *            set null to use default {@link ElasticSearchDeliveryMode.SYNCHRONOUS}
 	 */
 	public ReindexDatabaseJob(final ElasticSearchDeliveryMode deliveryMode) {
+		this(deliveryMode, null);
+	}
+
+	/**
+	 * Constructor of a delta reindex, which only sends the models modified after a time.
+	 * 
+	 * @param deliveryMode
+	 *            set null to use default {@link ElasticSearchDeliveryMode.SYNCHRONOUS}
+	 * @param modifiedSince
+	 *            only models whose {@link ElasticSearchModifiedAt} field is after this time are sent, null for a full
+	 *            reindex
+	 */
+	public ReindexDatabaseJob(final ElasticSearchDeliveryMode deliveryMode, final Date modifiedSince) {
 		super();
 		if (deliveryMode == null) {
 			this.deliveryMode = ElasticSearchDeliveryMode.SYNCHRONOUS;
 		} else {
 			this.deliveryMode = deliveryMode;
 		}
+		this.modifiedSince = modifiedSince;
+	}
+
+	/**
+	 * Gets the progress of the running or last reindex
+	 * 
+	 * @return the progress, null if no reindex ran since the start
+	 */
+	public static ReindexProgress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Gets the checkpoint file of the reindex
+	 */
+	public static File getCheckpointFile() {
+		return Play.getFile(Play.configuration.getProperty("elasticsearch.reindex.checkpoint", "data/elasticsearch-reindex.properties"));
+	}
+
+	/**
+	 * Checks if a reindex did not finish
+	 */
+	public static boolean hasCheckpoint() {
+		return getCheckpointFile().exists();
+	}
+
+	private static synchronized boolean begin() {
+		if (running) {
+			return false;
+		}
+		running = true;
+		return true;
+	}
+
+	private static synchronized void end() {
+		running = false;
 	}
 
 	@Override
 	public void doJob() throws Exception {
+		reindexUnlessRunning();
+	}
+
+	/**
+	 * Runs the reindex in the current thread, unless another one is running
+	 * 
+	 * @return true if the reindex ran
+	 */
+	boolean reindexUnlessRunning() throws Exception {
+		if (!begin()) {
+			Logger.warn("Elastic Search reindex is running already");
+			return false;
+		}
+		try {
+			reindex();
+			return true;
+		} finally {
+			end();
+		}
+	}
+
+	private void reindex() throws Exception {
+		final boolean delta = modifiedSince != null;
+		final File checkpoint = getCheckpointFile();
+		final ReindexProgress current = delta ? new ReindexProgress() : ReindexProgress.load(checkpoint);
+		if (delta) {
+			Logger.info("Reindexing Elastic Search models modified since %s", modifiedSince);
+		} else if (hasCheckpoint()) {
+			Logger.info("Resuming Elastic Search reindex from %s", checkpoint);
+		}
+		current.start();
+		progress = current;
+
+		final RateLimiter documents = new RateLimiter(Double.parseDouble(Play.configuration.getProperty("elasticsearch.reindex.maxDocsPerSecond", "0")));
+		final RateLimiter queries = new RateLimiter(Double.parseDouble(Play.configuration.getProperty("elasticsearch.reindex.maxQueriesPerSecond", "0")));
+		final int fetchSize = Integer.parseInt(Play.configuration.getProperty("elasticsearch.reindex.fetchSize", "1000"));
+		final ElasticSearchPlugin plugin = Play.plugin(ElasticSearchPlugin.class);
+
 		final Set<ManagedType<?>> types = JPA.em().getMetamodel().getManagedTypes();
-		for (final ManagedType managedType : types) {
-			final Class modelClass = managedType.getJavaType();
+		for (final ManagedType<?> managedType : types) {
+			final Class<?> javaType = managedType.getJavaType();
 			// Proceed only if searchable
-			if (!MappingUtil.isSearchable(modelClass)) {
+			if (!Model.class.isAssignableFrom(javaType) || !MappingUtil.isSearchable(javaType)) {
+				continue;
+			}
+			final Class<? extends Model> modelClass = javaType.asSubclass(Model.class);
+
+			final TypeProgress type = current.type(ElasticSearchPlugin.getMapper(modelClass).getTypeName());
+			if (type.isComplete()) {
+				Logger.info("Skipping %s, reindexed before the restart", modelClass);
 				continue;
 			}
 
 			final Factory factory = Model.Manager.factoryFor(modelClass);
-			final long count = factory.count(null, null, null);
+			final Field modifiedAt = getModifiedAtField(modelClass);
+			if (delta && modifiedAt == null) {
+				Logger.info("Skipping %s in the delta reindex, it has no @ElasticSearchModifiedAt field", modelClass);
+				type.complete();
+				continue;
+			}
+			final String modified = delta ? "e." + modifiedAt.getName() + " > :since" : null;
+			final Object since = delta ? toFieldValue(modifiedSince, modifiedAt.getType()) : null;
+
+			queries.acquire(1);
+			if (delta) {
+				type.setTotal(((Number) JPA.em().createQuery("select count(e) from " + modelClass.getName() + " e where " + modified).setParameter("since", since)
+						.getSingleResult()).longValue());
+			} else {
+				type.setTotal(factory.count(null, null, null));
+			}
+			Logger.info("Reindexing %s entities of type %s, %s done", type.getTotal(), modelClass, type.getDone());
+
+			// One forward-only cursor per type in key order, starting after the last key of an interrupted reindex
+			final String keyName = factory.keyName();
+			final Object last = type.getLastKey() == null ? null : Binder.directBind(type.getLastKey(), factory.keyType());
+			final String where = last == null ? modified : "e." + keyName + " > :last" + (delta ? " and " + modified : "");
+			final Session session = (Session) JPA.em().getDelegate();
+			queries.acquire(1);
+			final Query query = session.createQuery("select e from " + modelClass.getName() + " e" + (where == null ? "" : " where " + where) + " order by e." + keyName)
+					.setFetchSize(fetchSize).setReadOnly(true).setCacheMode(CacheMode.IGNORE);
+			if (last != null) {
+				query.setParameter("last", last);
+			}
+			if (delta) {
+				query.setParameter("since", since);
+			}
+			@SuppressWarnings("unchecked")
+			final ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(modelClass);
+			final LinkedList<SentPage> sent = new LinkedList<SentPage>();
+			final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				final List<Model> page = new ArrayList<Model>(PAGE_SIZE);
+				long rows = 0;
+				boolean more = true;
+				while (more) {
+					// The cursor fetches the next fetchSize rows from the database, which counts as a query
+					if (rows > 0 && rows % fetchSize == 0) {
+						queries.acquire(1);
+					}
+					more = results.next();
+					if (more) {
+						rows++;
+						page.add((Model) results.get(0));
+					}
+					if (page.size() == PAGE_SIZE || (!more && !page.isEmpty())) {
+						ElasticSearchMetrics.recordBatch(page.size());
+						documents.acquire(page.size());
+						// Load the associations the mappers traverse for the whole page, not model by model
+						AssociationPrefetcher.prefetch(JPA.em(), page, queries);
+						final List<String> documentIds = new ArrayList<String>(page.size());
+						for (final Model model : page) {
+							documentIds.add(mapper.getDocumentId(model));
+						}
+						// One batch per page, sent as one bulk request by SYNCHRONOUS and LOCAL
+						plugin.index(page, deliveryMode, Priority.REINDEX);
+						sent.add(new SentPage(type, mapper, documentIds, String.valueOf(factory.keyValue(page.get(page.size() - 1)))));
+						acknowledge(current, sent, delta ? null : checkpoint, false);
+						// Detach the page, so the session does not grow with the table
+						page.clear();
+						session.clear();
+					}
+				}
+			} finally {
+				results.close();
+			}
+			acknowledge(current, sent, delta ? null : checkpoint, true);
+			type.complete();
+			if (!delta) {
+				current.save(checkpoint);
+			}
+		}
 
-			// Defensively avoid overflow leading to infinite loop below
-			if (count > Integer.MAX_VALUE) {
-				throw new RuntimeException(String.format("Number of entities %s to index is too large (%d)", modelClass, count));
+		current.finish();
+		if (!delta) {
+			checkpoint.delete();
+		}
+		Logger.info("Reindexed %d entities in %d s", current.getDone(), (current.getFinished() - current.getStarted()) / 1000);
+	}
+
+	/**
+	 * Counts the pages whose documents Elastic Search answered, in the order they were sent, and saves the checkpoint
+	 * after them
+	 * 
+	 * @param checkpoint
+	 *            the checkpoint file, null for a delta reindex
+	 * @param wait
+	 *            true to wait for all pages
+	 */
+	private static void acknowledge(ReindexProgress current, LinkedList<SentPage> pages, File checkpoint, boolean wait) throws IOException, InterruptedException {
+		boolean moved = false;
+		while (!pages.isEmpty()) {
+			final SentPage page = pages.getFirst();
+			if (!page.isAnswered()) {
+				if (!wait) {
+					break;
+				}
+				if (!PendingWrites.await(page.mapper, page.documentIds, ACKNOWLEDGE_TIMEOUT)) {
+					Logger.warn("Elastic Search did not answer reindexed %s documents in %d ms, moving on", page.type.getType(), ACKNOWLEDGE_TIMEOUT);
+				}
 			}
+			pages.removeFirst();
+			current.sent(page.type, page.documentIds.size(), page.lastKey);
+			moved = true;
+		}
+		if (moved && checkpoint != null) {
+			current.save(checkpoint);
+		}
+	}
 
-			Logger.info("Reindexing %s entities of type %s", count, modelClass);
+	/**
+	 * A page handed to the delivery mode
+	 */
+	private static class SentPage {
+
+		final TypeProgress type;
+
+		final ModelMapper<?> mapper;
+
+		final List<String> documentIds;
+
+		/** The key of the last model of the page */
+		final String lastKey;
 
-			Session session = (Session) JPA.em().getDelegate();
-			long offset = 0;
-			// loop over pages
-			while (offset < count) {
-				final List results = factory.fetch((int) offset, PAGE_SIZE, null, null, null, null, null);
-				// loop over individual entities within one page
-				for (final Object o : results) {
-					ElasticSearch.index((Model) o, deliveryMode);
+		SentPage(TypeProgress type, ModelMapper<?> mapper, List<String> documentIds, String lastKey) {
+			this.type = type;
+			this.mapper = mapper;
+			this.documentIds = documentIds;
+			this.lastKey = lastKey;
+		}
+
+		/**
+		 * Checks if none of the documents has a pending write
+		 */
+		boolean isAnswered() {
+			for (final String documentId : documentIds) {
+				if (PendingWrites.isPending(mapper.getIndexName(), mapper.getTypeName(), documentId)) {
+					return false;
 				}
-				session.clear();
-				offset += PAGE_SIZE;
 			}
+			return true;
+		}
+
+	}
+
+	/**
+	 * Gets the field annotated with {@link ElasticSearchModifiedAt}
+	 * 
+	 * @return the field, or null if there is none
+	 */
+	private static Field getModifiedAtField(Class<?> clazz) {
+		List<Field> fields = ReflectionUtil.getFieldsWithAnnotation(clazz, ElasticSearchModifiedAt.class);
+		if (fields.size() > 1) {
+			throw new MappingException("Only one field of " + clazz.getName() + " can be annotated with @ElasticSearchModifiedAt");
+		}
+		return fields.isEmpty() ? null : fields.get(0);
+	}
+
+	/**
+	 * Converts a time to the type of the modification time field, to compare them in a query
+	 */
+	private static Object toFieldValue(Date time, Class<?> type) {
+		if (Date.class.isAssignableFrom(type)) {
+			return time;
+		}
+		if (Calendar.class.isAssignableFrom(type)) {
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime(time);
+			return calendar;
+		}
+		if (type == Long.class || type == long.class) {
+			return Long.valueOf(time.getTime());
 		}
+		throw new MappingException("@ElasticSearchModifiedAt field of type " + type.getName() + " is not supported, use a Date, Calendar or long");
 	}
 
 }
@@ -0,0 +1,257 @@
+package play.modules.elasticsearch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Progress of a reindex, by index type. The progress is the checkpoint of the reindex as well: it is saved once the
+ * documents of a page were answered, and a reindex which did not finish continues after the last key of each type.
+ */
+public class ReindexProgress {
+
+	/** Progress by index type, in the order the types are reindexed */
+	private final Map<String, TypeProgress> types = new LinkedHashMap<String, TypeProgress>();
+
+	/** The time this run started, in milliseconds */
+	private volatile long started;
+
+	/** The time this run finished, in milliseconds, 0 while it runs */
+	private volatile long finished;
+
+	/** Documents sent by this run, for the rate */
+	private volatile long sent;
+
+	/**
+	 * Gets the progress of an index type, creating it if it is not known yet
+	 *
+	 * @param type
+	 *            the index type
+	 * @return the progress
+	 */
+	public synchronized TypeProgress type(String type) {
+		TypeProgress progress = types.get(type);
+		if (progress == null) {
+			progress = new TypeProgress(type);
+			types.put(type, progress);
+		}
+		return progress;
+	}
+
+	/**
+	 * Gets the progress of all index types
+	 */
+	public synchronized List<TypeProgress> getTypes() {
+		return new ArrayList<TypeProgress>(types.values());
+	}
+
+	void start() {
+		started = System.currentTimeMillis();
+		finished = 0;
+		sent = 0;
+	}
+
+	void finish() {
+		finished = System.currentTimeMillis();
+	}
+
+	/**
+	 * Counts a page of documents sent
+	 */
+	void sent(TypeProgress type, int documents, String lastKey) {
+		type.done += documents;
+		type.lastKey = lastKey;
+		sent += documents;
+	}
+
+	public boolean isRunning() {
+		return started > 0 && finished == 0;
+	}
+
+	public long getStarted() {
+		return started;
+	}
+
+	public long getFinished() {
+		return finished;
+	}
+
+	/**
+	 * Gets the number of documents sent, including those of earlier runs
+	 */
+	public long getDone() {
+		long done = 0;
+		for (TypeProgress type : getTypes()) {
+			done += type.done;
+		}
+		return done;
+	}
+
+	/**
+	 * Gets the number of documents to send, types which were not counted yet are missing
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (TypeProgress type : getTypes()) {
+			total += Math.max(type.total, type.done);
+		}
+		return total;
+	}
+
+	/**
+	 * Gets the number of documents sent per second by this run
+	 */
+	public double getRate() {
+		long end = finished > 0 ? finished : System.currentTimeMillis();
+		return end > started ? sent * 1000d / (end - started) : 0;
+	}
+
+	/**
+	 * Gets the estimated time until the reindex finishes, in seconds
+	 *
+	 * @return the estimate, -1 if it is unknown
+	 */
+	public long getEta() {
+		if (!isRunning()) {
+			return 0;
+		}
+		double rate = getRate();
+		return rate > 0 ? (long) ((getTotal() - getDone()) / rate) : -1;
+	}
+
+	/**
+	 * Loads the checkpoint of a reindex which did not finish
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @return the progress, empty if there is no checkpoint
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static ReindexProgress load(File file) throws IOException {
+		ReindexProgress progress = new ReindexProgress();
+		if (!file.exists()) {
+			return progress;
+		}
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		String[] order = properties.getProperty("types", "").split(",");
+		for (String name : order) {
+			if (name.length() == 0) {
+				continue;
+			}
+			TypeProgress type = progress.type(name);
+			type.done = Long.parseLong(properties.getProperty(name + ".done", "0"));
+			type.lastKey = properties.getProperty(name + ".lastKey");
+			type.complete = Boolean.parseBoolean(properties.getProperty(name + ".complete"));
+		}
+		return progress;
+	}
+
+	/**
+	 * Saves the checkpoint, replacing the file atomically
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void save(File file) throws IOException {
+		Properties properties = new Properties();
+		StringBuilder order = new StringBuilder();
+		for (TypeProgress type : getTypes()) {
+			order.append(order.length() == 0 ? "" : ",").append(type.type);
+			properties.setProperty(type.type + ".done", String.valueOf(type.done));
+			if (type.lastKey != null) {
+				properties.setProperty(type.type + ".lastKey", type.lastKey);
+			}
+			properties.setProperty(type.type + ".complete", String.valueOf(type.complete));
+		}
+		properties.setProperty("types", order.toString());
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Cannot create " + parent);
+		}
+		File temp = new File(parent, file.getName() + ".tmp");
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			properties.store(out, "Elastic Search reindex checkpoint");
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("Cannot replace " + file);
+			}
+		}
+	}
+
+	/**
+	 * Progress of an index type
+	 */
+	public static class TypeProgress {
+
+		private final String type;
+
+		/** Number of documents of the type, counted when its reindex starts */
+		private volatile long total;
+
+		/** Number of documents sent */
+		private volatile long done;
+
+		/** Key of the last document sent, null before the first page */
+		private volatile String lastKey;
+
+		/** Whether all documents of the type were sent */
+		private volatile boolean complete;
+
+		TypeProgress(String type) {
+			this.type = type;
+		}
+
+		void setTotal(long total) {
+			this.total = total;
+		}
+
+		void complete() {
+			this.complete = true;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public long getTotal() {
+			return total;
+		}
+
+		public long getDone() {
+			return done;
+		}
+
+		public String getLastKey() {
+			return lastKey;
+		}
+
+		public boolean isComplete() {
+			return complete;
+		}
+
+	}
+
+}
@@ -0,0 +1,231 @@
+package play.modules.elasticsearch;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.UnavailableShardsException;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.transport.ConnectTransportException;
+import org.elasticsearch.transport.ReceiveTimeoutTransportException;
+
+import play.Logger;
+import play.db.jpa.JPA;
+import play.modules.elasticsearch.deadletter.DeadLetters;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * Decides what happens to index events which could not be written.
+ *
+ * <p>
+ * Failures which go away by themselves, like a full bulk queue on the cluster, a timeout or a lost connection, are
+ * retried with exponential backoff: the n-th retry waits a random time between half and all of
+ * initialBackoff * 2^(n-1), at most maxBackoff. A retry sends the document in its current state, loaded from the
+ * database like the {@link DocumentRelay} does, so it never overwrites a newer write with the state of the failed
+ * event. The document counts as a pending write until its retry is done. Events which cannot be written, e.g.
+ * because the document does not match the mapping, events which are out of attempts and events of applications
+ * without JPA go to the {@link DeadLetters} store.
+ */
+public class RetryPolicy {
+
+	/** Maximum number of attempts to send an event, 1 to never retry */
+	private final int maxAttempts;
+
+	/** Backoff before the first retry, in milliseconds */
+	private final long initialBackoff;
+
+	/** Maximum backoff, in milliseconds */
+	private final long maxBackoff;
+
+	private final Random random = new Random();
+
+	/** Runs the retries, created on the first one */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Instantiates a new retry policy.
+	 *
+	 * @param maxAttempts
+	 *            maximum number of attempts to send an event, 1 to never retry
+	 * @param initialBackoff
+	 *            backoff before the first retry, in milliseconds
+	 * @param maxBackoff
+	 *            maximum backoff, in milliseconds
+	 */
+	public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Checks if a failure may go away when the write is retried
+	 *
+	 * @param t
+	 *            the failure
+	 * @return true if it is worth retrying
+	 */
+	public static boolean isRetryable(Throwable t) {
+		Throwable cause = ExceptionsHelper.unwrapCause(t);
+		if (cause instanceof EsRejectedExecutionException || cause instanceof ElasticsearchTimeoutException || cause instanceof NoNodeAvailableException
+				|| cause instanceof ConnectTransportException || cause instanceof ReceiveTimeoutTransportException || cause instanceof UnavailableShardsException) {
+			return true;
+		}
+		if (cause instanceof ClusterBlockException) {
+			return ((ClusterBlockException) cause).retryable();
+		}
+		if (cause instanceof ElasticsearchException) {
+			return isRetryable(((ElasticsearchException) cause).status());
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a failed bulk item may succeed when it is retried
+	 *
+	 * @param status
+	 *            the status of the bulk item
+	 * @return true if it is worth retrying
+	 */
+	public static boolean isRetryable(RestStatus status) {
+		return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE || status == RestStatus.GATEWAY_TIMEOUT
+				|| status == RestStatus.REQUEST_TIMEOUT;
+	}
+
+	/**
+	 * Handles an event which could not be written, retrying it or storing it as a dead letter
+	 *
+	 * @param event
+	 *            the event
+	 * @param retryable
+	 *            true if the failure may go away when the write is retried
+	 * @param error
+	 *            why the write failed
+	 */
+	public void failed(ElasticSearchIndexEvent event, boolean retryable, String error) {
+		int attempts = event.failedAttempt();
+		DocumentReference reference = null;
+		try {
+			reference = DocumentReference.of(event);
+		} catch (Throwable t) {
+			Logger.error("Dropping %s, its document is unknown: %s", event, ExceptionUtil.getStackTrace(t));
+			return;
+		}
+		failed(reference, attempts, retryable, error);
+	}
+
+	/**
+	 * Handles a document which could not be written, retrying it in its current state or storing it as a dead letter
+	 *
+	 * @param reference
+	 *            the document
+	 * @param attempts
+	 *            the number of failed attempts so far
+	 * @param retryable
+	 *            true if the failure may go away when the write is retried
+	 * @param error
+	 *            why the write failed
+	 */
+	public void failed(final DocumentReference reference, final int attempts, boolean retryable, String error) {
+		if (!retryable || attempts >= maxAttempts || !JPA.isEnabled()) {
+			ElasticSearchMetrics.type(reference.getType()).failed();
+			DeadLetters.store(reference, attempts, error);
+			return;
+		}
+
+		long backoff = getBackoff(attempts);
+		ElasticSearchMetrics.type(reference.getType()).retried();
+		Logger.warn("Retrying %s in %d ms (attempt %d of %d): %s", reference, backoff, attempts + 1, maxAttempts, error);
+		PendingWrites.queued(reference);
+		getScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (!send(reference)) {
+						failed(reference, attempts + 1, true, "Elastic Search did not write the document, see the log");
+					}
+				} catch (Throwable t) {
+					failed(reference, attempts + 1, isRetryable(t), t.toString());
+				} finally {
+					PendingWrites.processed(reference);
+				}
+			}
+		}, backoff, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sends a document in its current state
+	 *
+	 * @return true if the document is done
+	 */
+	private static boolean send(DocumentReference reference) {
+		EntityManager em = JPA.newEntityManager();
+		try {
+			em.getTransaction().begin();
+			return DocumentRelay.send(em, Collections.singletonList(reference))[0];
+		} finally {
+			if (em.getTransaction().isActive()) {
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+	}
+
+	/**
+	 * Gets the backoff before a retry, with jitter so retries of events which failed together spread out
+	 *
+	 * @param attempts
+	 *            the number of failed attempts so far
+	 * @return the backoff in milliseconds
+	 */
+	public long getBackoff(int attempts) {
+		long backoff = initialBackoff << Math.min(attempts - 1, 30);
+		if (backoff <= 0 || backoff > maxBackoff) {
+			backoff = maxBackoff;
+		}
+		synchronized (random) {
+			return backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+		}
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	private synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "elasticsearch-retry");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Stops the retries which have not run yet
+	 */
+	public synchronized void shutdown() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+}
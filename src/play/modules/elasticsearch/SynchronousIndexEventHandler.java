@@ -1,19 +1,37 @@
 package play.modules.elasticsearch;
 
+import java.util.List;
+
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+
 /**
  * Handles events in the same thread as they arrive, circumventing indexer. This can be useful for testing or if you want to want to index a lot of entities within a single job that you manage yourself.
  * 
  * @author Filip.Stefanak
  * 
  */
-public class SynchronousIndexEventHandler implements IndexEventHandler {
+public class SynchronousIndexEventHandler implements BulkIndexEventHandler {
 
 	/**
 	 * Just process the event as it is without any fuss
 	 */
 	@Override
 	public void handle(final ElasticSearchIndexEvent event) {
+		ElasticSearchMetrics.eventQueued();
+		PendingWrites.queued(event);
 		(new ElasticSearchIndexAction()).invoke(event);
 	}
 
+	/**
+	 * Sends the events as one bulk request
+	 */
+	@Override
+	public void handle(final List<ElasticSearchIndexEvent> events) {
+		for (ElasticSearchIndexEvent event : events) {
+			ElasticSearchMetrics.eventQueued();
+			PendingWrites.queued(event);
+		}
+		(new ElasticSearchIndexAction()).invokeBulk(events);
+	}
+
 }
@@ -0,0 +1,130 @@
+package play.modules.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import play.Logger;
+import play.db.Model;
+import play.db.jpa.JPA;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * Buffers the index events of a JPA transaction until it completes.
+ *
+ * <p>
+ * Events for the same document are coalesced, so the document is written once with its state at commit. On commit
+ * the events are handed to the delivery mode as one batch, which {@link BulkIndexEventHandler}s send as a single bulk
+ * request. On rollback they are dropped.
+ */
+public class TransactionEventBuffer implements Synchronization {
+
+	/** The buffer of the transaction running in this thread */
+	private static final ThreadLocal<TransactionEventBuffer> current = new ThreadLocal<TransactionEventBuffer>();
+
+	/** The transaction the events belong to */
+	private final Transaction transaction;
+
+	/** The latest event of every document, keyed by index/type/id, in the order of their latest event */
+	private final Map<String, ElasticSearchIndexEvent> events = new LinkedHashMap<String, ElasticSearchIndexEvent>();
+
+	private TransactionEventBuffer(Transaction transaction) {
+		this.transaction = transaction;
+	}
+
+	/**
+	 * Gets the buffer of the JPA transaction running in this thread, registering a new one with the transaction if
+	 * needed
+	 *
+	 * @return the buffer, or null if there is no active transaction
+	 */
+	public static TransactionEventBuffer get() {
+		if (!JPA.isEnabled() || !JPA.isInsideTransaction() || !JPA.em().getTransaction().isActive()) {
+			return null;
+		}
+
+		Transaction transaction = ((Session) JPA.em().getDelegate()).getTransaction();
+		TransactionEventBuffer buffer = current.get();
+		if (buffer == null || buffer.transaction != transaction) {
+			buffer = new TransactionEventBuffer(transaction);
+			transaction.registerSynchronization(buffer);
+			current.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Adds an event, replacing any earlier event for the same document
+	 *
+	 * @param event
+	 *            the event
+	 */
+	public void add(ElasticSearchIndexEvent event) {
+		String key = key(event.getObject());
+		events.remove(key);
+		events.put(key, event);
+	}
+
+	/**
+	 * Checks if the transaction has an event for the document of a model
+	 *
+	 * @param model
+	 *            the model
+	 * @return true if an event is buffered for its document
+	 */
+	public boolean contains(Model model) {
+		return events.containsKey(key(model));
+	}
+
+	private static String key(Model model) {
+		@SuppressWarnings("unchecked")
+		ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(model.getClass());
+		return mapper.getIndexName() + "/" + mapper.getTypeName() + "/" + mapper.getDocumentId(model);
+	}
+
+	@Override
+	public void beforeCompletion() {
+		// Nothing to do
+	}
+
+	@Override
+	public void afterCompletion(int status) {
+		if (current.get() == this) {
+			current.remove();
+		}
+		if (events.isEmpty()) {
+			return;
+		}
+		if (status != Status.STATUS_COMMITTED) {
+			Logger.debug("Transaction rolled back, dropping %d index events", events.size());
+			return;
+		}
+
+		List<ElasticSearchIndexEvent> batch = new ArrayList<ElasticSearchIndexEvent>(events.values());
+		IndexEventHandler handler = ElasticSearchPlugin.getDeliveryMode().getHandler();
+		try {
+			for (ElasticSearchIndexEvent event : batch) {
+				ElasticSearchPlugin.documentQueued(event);
+			}
+			if (handler instanceof BulkIndexEventHandler) {
+				((BulkIndexEventHandler) handler).handle(batch);
+			} else {
+				for (ElasticSearchIndexEvent event : batch) {
+					handler.handle(event);
+				}
+			}
+		} catch (Throwable t) {
+			// Exceptions thrown after commit would be swallowed by Hibernate
+			Logger.error("Could not deliver %d index events: %s", batch.size(), ExceptionUtil.getStackTrace(t));
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package play.modules.elasticsearch.adapter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache which remembers a hash of the source of recently indexed documents.
+ *
+ * <p>
+ * The hash describes the source of the latest event handed to delivery, which allows index events for unchanged documents to be dropped before they are delivered. It is
+ * remembered when the event is queued, since an event which is still queued may change the document, and forgotten when a write fails.
+ */
+public class DocumentHashCache {
+
+	/** The source hashes, keyed by index/type/id */
+	private final Cache<String, Long> cache;
+
+	/** Number of documents checked */
+	private final AtomicLong checked = new AtomicLong();
+
+	/** Number of documents found unchanged */
+	private final AtomicLong skipped = new AtomicLong();
+
+	/**
+	 * Instantiates a new document hash cache.
+	 *
+	 * @param maximumSize
+	 *            the maximum number of documents to remember
+	 */
+	public DocumentHashCache(int maximumSize) {
+		cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+	}
+
+	/**
+	 * Checks if a document is unchanged since it was last indexed, and counts the outcome
+	 *
+	 * @param hash
+	 *            the hash of the current source
+	 * @return true if the last indexed source had the same hash
+	 */
+	public boolean isUnchanged(String indexName, String typeName, String documentId, long hash) {
+		checked.incrementAndGet();
+		Long previous = cache.getIfPresent(key(indexName, typeName, documentId));
+		if (previous != null && previous.longValue() == hash) {
+			skipped.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remembers the source hash of a document
+	 */
+	public void put(String indexName, String typeName, String documentId, long hash) {
+		cache.put(key(indexName, typeName, documentId), Long.valueOf(hash));
+	}
+
+	/**
+	 * Forgets a document
+	 */
+	public void invalidate(String indexName, String typeName, String documentId) {
+		cache.invalidate(key(indexName, typeName, documentId));
+	}
+
+	/**
+	 * Forgets all documents
+	 */
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Gets the number of documents checked
+	 */
+	public long getChecked() {
+		return checked.get();
+	}
+
+	/**
+	 * Gets the number of documents found unchanged
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * Gets the fraction of checked documents which were found unchanged
+	 */
+	public double getSkipRate() {
+		long total = checked.get();
+		return total == 0 ? 0 : (double) skipped.get() / total;
+	}
+
+	private static String key(String indexName, String typeName, String documentId) {
+		return indexName + "/" + typeName + "/" + documentId;
+	}
+
+}
@@ -18,32 +18,95 @@
  */
 package play.modules.elasticsearch.adapter;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
 import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.mapper.MergeMappingException;
 import org.elasticsearch.indices.IndexAlreadyExistsException;
 
 import play.Logger;
 import play.db.Model;
+import play.modules.elasticsearch.mapping.FieldMapper;
 import play.modules.elasticsearch.mapping.MappingUtil;
 import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.mapping.impl.SimpleFieldMapper;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics.Operation;
 import play.modules.elasticsearch.util.ExceptionUtil;
+import play.modules.elasticsearch.util.HashUtil;
 
 /**
  * The Class ElasticSearchAdapter.
  */
 public abstract class ElasticSearchAdapter {
 
+	/** Mappings put or verified by this JVM, keyed by index/type. Kept across application reloads in DEV mode */
+	private static final ConcurrentMap<String, MappingChecksum> appliedMappings = new ConcurrentHashMap<String, MappingChecksum>();
+
+	/** Whether writes refresh the index, making them visible to searches immediately */
+	private static volatile boolean refreshOnWrite = false;
+
+	/**
+	 * Sets whether writes refresh the index, making them visible to searches immediately. This is meant for tests,
+	 * since refreshing on every write is expensive.
+	 */
+	public static void setRefreshOnWrite(boolean refresh) {
+		refreshOnWrite = refresh;
+	}
+
+	/**
+	 * Checks whether writes refresh the index
+	 */
+	public static boolean isRefreshOnWrite() {
+		return refreshOnWrite;
+	}
+
+	/**
+	 * Forgets which mappings were applied, so they are checked against the cluster again
+	 */
+	public static void clearMappingCache() {
+		appliedMappings.clear();
+	}
+
 	/**
-	 * Start index.
+	 * Start index. The index is only created if it is missing, and the mapping is only put if its checksum differs
+	 * from the one stored in the _meta of the existing mapping.
 	 * 
 	 * @param client
 	 *            the client
@@ -51,67 +114,313 @@ public abstract class ElasticSearchAdapter {
 	 *            the model mapper
 	 */
 	public static <T extends Model> void startIndex(Client client, ModelMapper<T> mapper) {
-		createIndex(client, mapper);
-		createType(client, mapper);
+		String indexName = mapper.getIndexName();
+		String typeName = mapper.getTypeName();
+
+		try {
+			MappingChecksum checksum = MappingChecksum.of(mapper);
+			if (checksum.equals(appliedMappings.get(key(indexName, typeName)))) {
+				Logger.debug("Mapping of %s/%s is up to date", indexName, typeName);
+				return;
+			}
+
+			ImmutableOpenMap<String, MappingMetaData> existing = getExistingMappings(client, indexName);
+			boolean applied;
+			if (existing == null) {
+				applied = createIndex(client, mapper, checksum);
+			} else {
+				applied = applyMapping(client, mapper, checksum, existing.get(typeName));
+			}
+			if (applied) {
+				appliedMappings.put(key(indexName, typeName), checksum);
+			}
+
+		} catch (Throwable t) {
+			Logger.warn(ExceptionUtil.getStackTrace(t));
+		}
+	}
+
+	/**
+	 * Creates the indexes and mappings of several models at once. Missing indexes are created with one request per
+	 * index carrying the mappings of all its types, and changed mappings of existing indexes are put. All requests are
+	 * sent concurrently, before waiting for the cluster to reach yellow health.
+	 * 
+	 * @param client
+	 *            the client
+	 * @param mappers
+	 *            the model mappers
+	 * @param timeout
+	 *            the maximum time to wait for each step
+	 * @return the names of the indexes which are ready
+	 */
+	public static Set<String> startIndexes(Client client, Collection<ModelMapper<?>> mappers, TimeValue timeout) {
+		Set<String> ready = new LinkedHashSet<String>();
+
+		// Group the types whose mapping was not applied yet by index
+		Map<String, List<ModelMapper<?>>> indexes = new LinkedHashMap<String, List<ModelMapper<?>>>();
+		Map<ModelMapper<?>, MappingChecksum> checksums = new HashMap<ModelMapper<?>, MappingChecksum>();
+		for (ModelMapper<?> mapper : mappers) {
+			try {
+				MappingChecksum checksum = MappingChecksum.of(mapper);
+				if (checksum.equals(appliedMappings.get(key(mapper.getIndexName(), mapper.getTypeName())))) {
+					ready.add(mapper.getIndexName());
+					continue;
+				}
+				checksums.put(mapper, checksum);
+			} catch (Throwable t) {
+				Logger.warn("Cannot generate mapping of %s: %s", mapper.getTypeName(), ExceptionUtil.getStackTrace(t));
+				continue;
+			}
+
+			List<ModelMapper<?>> types = indexes.get(mapper.getIndexName());
+			if (types == null) {
+				types = new ArrayList<ModelMapper<?>>();
+				indexes.put(mapper.getIndexName(), types);
+			}
+			types.add(mapper);
+		}
+		// An index is only ready if all of its types are
+		ready.removeAll(indexes.keySet());
+
+		// Fetch the existing mappings of all these indexes at once
+		ImmutableOpenMap<String, ImmutableOpenMap<String, MappingMetaData>> existing = ImmutableOpenMap.of();
+		if (!indexes.isEmpty()) {
+			try {
+				existing = client.admin().indices().prepareGetMappings(indexes.keySet().toArray(new String[indexes.size()]))
+						.setIndicesOptions(IndicesOptions.lenientExpandOpen()).execute().actionGet(timeout).getMappings();
+			} catch (Throwable t) {
+				// Not fatal, the indexes are started on first use
+				Logger.warn("Cannot get the mappings of %s, starting them on first use: %s", indexes.keySet(), ExceptionUtil.getStackTrace(t));
+				return ready;
+			}
+		}
+
+		// Send all requests: missing indexes are created, changed mappings are put
+		Map<String, List<ActionFuture<?>>> pending = new LinkedHashMap<String, List<ActionFuture<?>>>();
+		for (Map.Entry<String, List<ModelMapper<?>>> index : indexes.entrySet()) {
+			String indexName = index.getKey();
+			List<ActionFuture<?>> futures = new ArrayList<ActionFuture<?>>();
+			try {
+				ImmutableOpenMap<String, MappingMetaData> types = existing.get(indexName);
+				if (types == null) {
+					CreateIndexRequest request = new CreateIndexRequest(indexName)
+							.settings(ImmutableSettings.settingsBuilder().loadFromSource(checksums.get(index.getValue().get(0)).getSettings()));
+					for (ModelMapper<?> mapper : index.getValue()) {
+						request.mapping(mapper.getTypeName(), checksums.get(mapper).getMapping());
+					}
+					futures.add(client.admin().indices().create(request));
+
+				} else {
+					for (ModelMapper<?> mapper : index.getValue()) {
+						MappingChecksum checksum = checksums.get(mapper);
+						MappingMetaData current = types.get(mapper.getTypeName());
+						warnIfSettingsChanged(mapper, checksum, current);
+						if (!checksum.isMappingCurrent(current)) {
+							PutMappingRequest request = Requests.putMappingRequest(indexName).type(mapper.getTypeName());
+							request.source(checksum.getMapping());
+							futures.add(client.admin().indices().putMapping(request));
+						}
+					}
+				}
+				pending.put(indexName, futures);
+			} catch (Throwable t) {
+				Logger.warn("Cannot start index %s: %s", indexName, ExceptionUtil.getStackTrace(t));
+			}
+		}
+
+		// Wait for the responses
+		for (Map.Entry<String, List<ActionFuture<?>>> index : pending.entrySet()) {
+			String indexName = index.getKey();
+			try {
+				for (ActionFuture<?> future : index.getValue()) {
+					future.actionGet(timeout);
+				}
+				Logger.debug("Started Elastic Search Index %s (%d requests)", indexName, index.getValue().size());
+				for (ModelMapper<?> mapper : indexes.get(indexName)) {
+					appliedMappings.put(key(indexName, mapper.getTypeName()), checksums.get(mapper));
+				}
+				ready.add(indexName);
+			} catch (Throwable t) {
+				logMappingFailure(indexName, null, t);
+			}
+		}
+
+		// Wait for the primaries to be allocated
+		if (!ready.isEmpty()) {
+			try {
+				ClusterHealthResponse health = client.admin().cluster().prepareHealth(ready.toArray(new String[ready.size()]))
+						.setWaitForYellowStatus().setTimeout(timeout).execute().actionGet();
+				if (health.isTimedOut()) {
+					Logger.warn("Elastic Search indexes %s did not reach yellow health within %s (status: %s)", ready, timeout, health.getStatus());
+				}
+			} catch (Throwable t) {
+				Logger.warn("Cannot get the health of Elastic Search indexes %s: %s", ready, ExceptionUtil.getStackTrace(t));
+			}
+		}
+		return ready;
+	}
+
+	/**
+	 * Gets the existing type mappings of an index
+	 * 
+	 * @return the mappings by type name, or null if the index does not exist
+	 */
+	private static ImmutableOpenMap<String, MappingMetaData> getExistingMappings(Client client, String indexName) {
+		ImmutableOpenMap<String, ImmutableOpenMap<String, MappingMetaData>> mappings = client.admin().indices().prepareGetMappings(indexName)
+				.setIndicesOptions(IndicesOptions.lenientExpandOpen()).execute().actionGet().getMappings();
+		if (mappings.isEmpty()) {
+			return null;
+		}
+		// The index name may be an alias, in which case the response is keyed by the concrete index
+		ImmutableOpenMap<String, MappingMetaData> types = mappings.get(indexName);
+		return types != null ? types : mappings.valuesIt().next();
 	}
 
 	/**
-	 * Creates the index.
+	 * Creates the index, including the mapping of the type.
 	 * 
 	 * @param client
 	 *            the client
 	 * @param mapper
 	 *            the model mapper
+	 * @param checksum
+	 *            the generated mapping and settings
+	 * @return true if the mapping was applied
 	 */
-	private static void createIndex(Client client, ModelMapper<?> mapper) {
+	private static boolean createIndex(Client client, ModelMapper<?> mapper, MappingChecksum checksum) {
 		String indexName = mapper.getIndexName();
 
 		try {
-			
-			XContentBuilder settings = MappingUtil.getSettingsMapper(mapper);
-			
 			Logger.debug("Starting Elastic Search Index %s", indexName);
 			CreateIndexResponse response = client.admin().indices()
 					.create(new CreateIndexRequest(indexName)
-					.settings(ImmutableSettings.settingsBuilder().loadFromSource(settings.string())))
+					.settings(ImmutableSettings.settingsBuilder().loadFromSource(checksum.getSettings()))
+					.mapping(mapper.getTypeName(), checksum.getMapping()))
 					.actionGet();
 
 			Logger.debug("Response: %s", response);
-
-		} catch (IndexAlreadyExistsException iaee) {
-			Logger.debug("Index already exists: %s", indexName);
+			return true;
 
 		} catch (Throwable t) {
+			if (ExceptionsHelper.unwrapCause(t) instanceof IndexAlreadyExistsException) {
+				// Created concurrently, e.g. by another node
+				Logger.debug("Index already exists: %s", indexName);
+				return putMapping(client, mapper, checksum);
+			}
 			Logger.warn(ExceptionUtil.getStackTrace(t));
+			return false;
+		}
+	}
+
+	/**
+	 * Puts the mapping of a type into an existing index, unless it is up to date.
+	 * 
+	 * @param current
+	 *            the existing mapping of the type, may be null
+	 * @return true if the mapping was applied
+	 */
+	private static boolean applyMapping(Client client, ModelMapper<?> mapper, MappingChecksum checksum, MappingMetaData current) {
+		warnIfSettingsChanged(mapper, checksum, current);
+		if (checksum.isMappingCurrent(current)) {
+			Logger.debug("Mapping of %s/%s is unchanged", mapper.getIndexName(), mapper.getTypeName());
+			return true;
 		}
+		return putMapping(client, mapper, checksum);
 	}
 
 	/**
-	 * Creates the type.
+	 * Puts the mapping of a type.
 	 * 
 	 * @param client
 	 *            the client
 	 * @param mapper
 	 *            the model mapper
+	 * @param checksum
+	 *            the generated mapping
+	 * @return true if the mapping was applied
 	 */
-	private static void createType(Client client, ModelMapper<?> mapper) {
+	private static boolean putMapping(Client client, ModelMapper<?> mapper, MappingChecksum checksum) {
 		String indexName = mapper.getIndexName();
 		String typeName = mapper.getTypeName();
 
 		try {
-			Logger.debug("Create Elastic Search Type %s/%s", indexName, typeName);
+			Logger.debug("Create Elastic Search Type %s/%s (%s)", indexName, typeName, checksum);
 			PutMappingRequest request = Requests.putMappingRequest(indexName).type(typeName);
-			XContentBuilder mapping = MappingUtil.getMapping(mapper);
-			Logger.debug("Type mapping: \n %s", mapping.string());
-			request.source(mapping);
+			request.source(checksum.getMapping());
 			PutMappingResponse response = client.admin().indices().putMapping(request).actionGet();
 			Logger.debug("Response: %s", response);
-
-		} catch (IndexAlreadyExistsException iaee) {
-			Logger.debug("Index already exists: %s", indexName);
+			return true;
 
 		} catch (Throwable t) {
-			Logger.warn(ExceptionUtil.getStackTrace(t));
+			logMappingFailure(indexName, typeName, t);
+			return false;
+		}
+	}
+
+	/**
+	 * Warns if an index was created with different settings, since settings are only applied on index creation
+	 */
+	private static void warnIfSettingsChanged(ModelMapper<?> mapper, MappingChecksum checksum, MappingMetaData current) {
+		if (checksum.isSettingsChanged(current)) {
+			Logger.warn("Analysis settings of %s/%s changed, they only take effect on a new index. Create a new index, reindex into it and point an alias named %s at it.",
+					mapper.getIndexName(), mapper.getTypeName(), mapper.getIndexName());
+		}
+	}
+
+	/**
+	 * Logs a failure to apply a mapping, pointing out how to apply incompatible changes
+	 */
+	private static void logMappingFailure(String indexName, String typeName, Throwable t) {
+		String target = typeName == null ? indexName : indexName + "/" + typeName;
+		Throwable cause = ExceptionsHelper.unwrapCause(t);
+		if (cause instanceof MergeMappingException) {
+			Logger.error("Mapping of %s is incompatible with the existing mapping: %s. Existing fields cannot be changed in place. Create a new index with the new mapping, reindex into it and point an alias named %s at it.",
+					target, cause.getMessage(), indexName);
+		} else {
+			Logger.warn("Cannot apply mapping of %s: %s", target, ExceptionUtil.getStackTrace(t));
+		}
+	}
+
+	private static String key(String indexName, String typeName) {
+		return indexName + "/" + typeName;
+	}
+
+	/**
+	 * Builds the document source of a model.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @return the content builder holding the source
+	 * @throws IOException
+	 */
+	public static <T extends Model> XContentBuilder buildSource(ModelMapper<T> mapper, T model) throws IOException {
+		XContentBuilder contentBuilder = XContentFactory.jsonBuilder();
+		mapper.addModel(model, contentBuilder);
+		return contentBuilder;
+	}
+
+	/**
+	 * Hashes the document source of a model, as it would be sent by {@link #indexModel(Client, ModelMapper, Model)}.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @return the source hash
+	 * @throws IOException
+	 */
+	public static <T extends Model> long hashSource(ModelMapper<T> mapper, T model) throws IOException {
+		XContentBuilder contentBuilder = buildSource(mapper, model);
+		try {
+			return HashUtil.hash(contentBuilder.bytes());
+		} finally {
+			contentBuilder.close();
 		}
 	}
 
@@ -131,6 +440,31 @@ public abstract class ElasticSearchAdapter {
 	 */
 	public static <T extends Model> void indexModel(Client client, ModelMapper<T> mapper, T model)
 			throws Exception {
+		indexModel(client, mapper, model, null, null, false);
+	}
+
+	/**
+	 * Index model, remembering the hash of the indexed source.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @param documentHashes
+	 *            the cache to store the source hash in, may be null
+	 * @param version
+	 *            the external version to write, null for unversioned writes
+	 * @param refresh
+	 *            refresh the index after the write, so the document is visible to searches right away
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static <T extends Model> void indexModel(Client client, ModelMapper<T> mapper, T model,
+			DocumentHashCache documentHashes, Long version, boolean refresh) throws Exception {
 		Logger.debug("Index Model: %s", model);
 
 		// Check Client
@@ -150,15 +484,24 @@ public abstract class ElasticSearchAdapter {
 			String documentId = mapper.getDocumentId(model);
 			Logger.debug("Index Name: %s", indexName);
 
-			contentBuilder = XContentFactory.jsonBuilder().prettyPrint();
-			mapper.addModel(model, contentBuilder);
-			Logger.debug("Index json: %s", contentBuilder.string());
-			IndexResponse response = client.prepareIndex(indexName, typeName, documentId)
-					.setSource(contentBuilder).execute().actionGet();
+			contentBuilder = buildSource(mapper, model);
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("Index json: %s", contentBuilder.string());
+			}
+			IndexRequestBuilder request = prepareIndex(client, mapper, model, contentBuilder, version).setRefresh(
+					refresh || refreshOnWrite);
+			long start = System.nanoTime();
+			IndexResponse response = request.execute().actionGet();
+			ElasticSearchMetrics.recordCall(Operation.INDEX, System.nanoTime() - start);
 
 			// Log Debug
 			Logger.debug("Index Response: %s", response);
 
+			// Remember what was written
+			if (documentHashes != null) {
+				documentHashes.put(indexName, typeName, documentId, HashUtil.hash(contentBuilder.bytes()));
+			}
+
 		} finally {
 			if (contentBuilder != null) {
 				contentBuilder.close();
@@ -166,6 +509,141 @@ public abstract class ElasticSearchAdapter {
 		}
 	}
 
+	/**
+	 * Prepares the index request of a model, e.g. to add it to a bulk request
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @param source
+	 *            the document source, see {@link #buildSource(ModelMapper, Model)}
+	 * @param version
+	 *            the external version to write, null for unversioned writes
+	 * @return the request
+	 */
+	public static <T extends Model> IndexRequestBuilder prepareIndex(Client client, ModelMapper<T> mapper, T model,
+			XContentBuilder source, Long version) {
+		IndexRequestBuilder request = client.prepareIndex(mapper.getIndexName(), mapper.getTypeName(), mapper.getDocumentId(model))
+				.setSource(source).setRouting(mapper.getRouting(model));
+		if (version != null) {
+			request.setVersion(version.longValue()).setVersionType(VersionType.EXTERNAL_GTE);
+		}
+		return request;
+	}
+
+	/**
+	 * Update model, only sending the fields which changed since it was last indexed.
+	 * 
+	 * <p>
+	 * Every mapped field is serialized and hashed separately. If the document is known to the cache, a partial update containing only the changed fields is sent, or nothing at all if no indexed field changed. Unknown documents, and documents where a changed field disappeared
+	 * from the source, are indexed in full. So are documents where a changed field is not a simple field: Elastic Search merges a partial object into the stored one, and an embedded field writes several fields, so a
+	 * removed sub-field would stay in the index. Versioned writes are always indexed in full, since the update API does not support external versions.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @param fieldHashes
+	 *            the hashes of the fields as they were last indexed
+	 * @param documentHashes
+	 *            the cache to store the source hash in, may be null
+	 * @param version
+	 *            the external version to write, null for unversioned writes
+	 * @param refresh
+	 *            refresh the index after the write, so the document is visible to searches right away
+	 * @return true if a request was sent, false if the document was unchanged
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static <T extends Model> boolean updateModel(Client client, ModelMapper<T> mapper, T model, FieldHashCache fieldHashes,
+			DocumentHashCache documentHashes, Long version, boolean refresh) throws Exception {
+		Logger.debug("Update Model: %s", model);
+
+		String indexName = mapper.getIndexName();
+		String typeName = mapper.getTypeName();
+		String documentId = mapper.getDocumentId(model);
+
+		// Hash every field on its own
+		List<FieldMapper<T>> fields = mapper.getFieldMappers();
+		long[] hashes = new long[fields.size()];
+		boolean[] empty = new boolean[fields.size()];
+		for (int i = 0; i < fields.size(); i++) {
+			XContentBuilder fragment = XContentFactory.jsonBuilder();
+			fragment.startObject();
+			fields.get(i).addToDocument(model, fragment);
+			fragment.endObject();
+			BytesReference bytes = fragment.bytes();
+			hashes[i] = HashUtil.hash(bytes);
+			// Nothing but "{}" was written
+			empty[i] = bytes.length() <= 2;
+		}
+
+		// Find changed fields
+		long[] previous = fieldHashes.get(indexName, typeName, documentId);
+		boolean fullIndex = (previous == null || previous.length != hashes.length);
+		List<FieldMapper<T>> changed = new ArrayList<FieldMapper<T>>();
+		if (!fullIndex) {
+			for (int i = 0; i < hashes.length; i++) {
+				if (hashes[i] != previous[i]) {
+					changed.add(fields.get(i));
+					// A partial document can't remove a field, nor a sub-field of an embedded or collection field
+					fullIndex |= empty[i] || !(fields.get(i) instanceof SimpleFieldMapper);
+				}
+			}
+			if (changed.isEmpty()) {
+				Logger.debug("No indexed field changed, skipping %s/%s/%s", indexName, typeName, documentId);
+				return false;
+			}
+		}
+
+		// The update API does not support external versions
+		fullIndex |= (version != null);
+
+		if (!fullIndex) {
+			XContentBuilder partial = XContentFactory.jsonBuilder();
+			partial.startObject();
+			for (FieldMapper<T> field : changed) {
+				field.addToDocument(model, partial);
+			}
+			partial.endObject();
+
+			try {
+				if (Logger.isDebugEnabled()) {
+					Logger.debug("Partial update json: %s", partial.string());
+				}
+				long start = System.nanoTime();
+				UpdateResponse response = client.prepareUpdate(indexName, typeName, documentId).setDoc(partial)
+						.setRouting(mapper.getRouting(model)).setRefresh(refresh || refreshOnWrite).execute().actionGet();
+				ElasticSearchMetrics.recordCall(Operation.UPDATE, System.nanoTime() - start);
+				Logger.debug("Update Response: %s", response);
+
+				// The full source was not hashed
+				if (documentHashes != null) {
+					documentHashes.invalidate(indexName, typeName, documentId);
+				}
+			} catch (DocumentMissingException dme) {
+				Logger.debug("Document %s/%s/%s is missing, indexing it in full", indexName, typeName, documentId);
+				fullIndex = true;
+			}
+		}
+
+		if (fullIndex) {
+			indexModel(client, mapper, model, documentHashes, version, refresh);
+		}
+
+		fieldHashes.put(indexName, typeName, documentId, hashes);
+		return true;
+	}
+
 	/**
 	 * Delete model.
 	 * 
@@ -182,14 +660,105 @@ public abstract class ElasticSearchAdapter {
 	 */
 	public static <T extends Model> void deleteModel(Client client, ModelMapper<T> mapper, T model)
 			throws Exception {
+		deleteModel(client, mapper, model, null, false);
+	}
+
+	/**
+	 * Delete model.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @param version
+	 *            the external version to write, null for unversioned writes
+	 * @param refresh
+	 *            refresh the index after the write, so the deletion is visible to searches right away
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static <T extends Model> void deleteModel(Client client, ModelMapper<T> mapper, T model, Long version, boolean refresh)
+			throws Exception {
 		Logger.debug("Delete Model: %s", model);
-		String indexName = mapper.getIndexName();
-		String typeName = mapper.getTypeName();
-		String documentId = mapper.getDocumentId(model);
-		DeleteResponse response = client.prepareDelete(indexName, typeName, documentId)
-				.setOperationThreaded(false).execute().actionGet();
+		DeleteRequestBuilder request = prepareDelete(client, mapper, model, version).setOperationThreaded(false)
+				.setRefresh(refresh || refreshOnWrite);
+		long start = System.nanoTime();
+		DeleteResponse response = request.execute().actionGet();
+		ElasticSearchMetrics.recordCall(Operation.DELETE, System.nanoTime() - start);
 		Logger.debug("Delete Response: %s", response);
 
 	}
 
+	/**
+	 * Prepares the delete request of a model, e.g. to add it to a bulk request
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @param version
+	 *            the external version to write, null for unversioned writes
+	 * @return the request
+	 */
+	public static <T extends Model> DeleteRequestBuilder prepareDelete(Client client, ModelMapper<T> mapper, T model, Long version) {
+		DeleteRequestBuilder request = client.prepareDelete(mapper.getIndexName(), mapper.getTypeName(), mapper.getDocumentId(model))
+				.setRouting(mapper.getRouting(model));
+		if (version != null) {
+			request.setVersion(version.longValue()).setVersionType(VersionType.EXTERNAL_GTE);
+		}
+		return request;
+	}
+
+	/**
+	 * Waits until documents exist, using realtime gets which see writes before the index is refreshed. This tells
+	 * nothing about updates or deletes of documents, use it for writes which are not tracked by
+	 * {@link play.modules.elasticsearch.PendingWrites}.
+	 * 
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param documentIds
+	 *            the ids of the documents to wait for
+	 * @param routing
+	 *            the routing value of the documents, null if they are routed by id
+	 * @param timeout
+	 *            the maximum time to wait, in milliseconds
+	 * @return true if all documents exist, false if the timeout passed first
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public static boolean awaitDocuments(Client client, ModelMapper<?> mapper, Collection<String> documentIds, String routing,
+			long timeout) throws InterruptedException {
+		Set<String> missing = new LinkedHashSet<String>(documentIds);
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!missing.isEmpty()) {
+			MultiGetRequestBuilder request = client.prepareMultiGet().setRealtime(true);
+			for (String documentId : missing) {
+				request.add(new MultiGetRequest.Item(mapper.getIndexName(), mapper.getTypeName(), documentId).routing(routing));
+			}
+			for (MultiGetItemResponse item : request.execute().actionGet()) {
+				if (!item.isFailed() && item.getResponse().isExists()) {
+					missing.remove(item.getId());
+				}
+			}
+			if (!missing.isEmpty()) {
+				if (System.currentTimeMillis() >= deadline) {
+					Logger.debug("Documents %s of %s were not written within %d ms", missing, mapper.getTypeName(), timeout);
+					return false;
+				}
+				Thread.sleep(10);
+			}
+		}
+		return true;
+	}
+
 }
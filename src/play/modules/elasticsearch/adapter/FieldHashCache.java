@@ -0,0 +1,61 @@
+package play.modules.elasticsearch.adapter;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache which remembers a hash of every mapped field of recently indexed documents.
+ *
+ * <p>
+ * The hashes describe the state which was last written successfully, which allows updates to be reduced to the fields which actually changed.
+ */
+public class FieldHashCache {
+
+	/** The field hashes, keyed by index/type/id */
+	private final Cache<String, long[]> cache;
+
+	/**
+	 * Instantiates a new field hash cache.
+	 *
+	 * @param maximumSize
+	 *            the maximum number of documents to remember
+	 */
+	public FieldHashCache(int maximumSize) {
+		cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+	}
+
+	/**
+	 * Gets the field hashes of a document
+	 *
+	 * @return the field hashes in mapping order, or null if unknown
+	 */
+	public long[] get(String indexName, String typeName, String documentId) {
+		return cache.getIfPresent(key(indexName, typeName, documentId));
+	}
+
+	/**
+	 * Remembers the field hashes of a document
+	 */
+	public void put(String indexName, String typeName, String documentId, long[] hashes) {
+		cache.put(key(indexName, typeName, documentId), hashes);
+	}
+
+	/**
+	 * Forgets a document
+	 */
+	public void invalidate(String indexName, String typeName, String documentId) {
+		cache.invalidate(key(indexName, typeName, documentId));
+	}
+
+	/**
+	 * Forgets all documents
+	 */
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	private static String key(String indexName, String typeName, String documentId) {
+		return indexName + "/" + typeName + "/" + documentId;
+	}
+
+}
@@ -0,0 +1,145 @@
+package play.modules.elasticsearch.adapter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import play.modules.elasticsearch.mapping.MappingUtil;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.util.HashUtil;
+
+/**
+ * Checksums of the generated mapping and settings of a model.
+ *
+ * <p>
+ * The checksums are stored in the _meta of the type mapping, so that unchanged mappings do not have to be put again when the application starts.
+ */
+public class MappingChecksum {
+
+	/** The _meta key of the mapping checksum */
+	static final String MAPPING_KEY = "mapping_checksum";
+
+	/** The _meta key of the settings checksum */
+	static final String SETTINGS_KEY = "settings_checksum";
+
+	/** The type mapping, including the checksums in its _meta */
+	private final XContentBuilder mapping;
+
+	/** The index settings */
+	private final String settings;
+
+	private final String mappingChecksum;
+
+	private final String settingsChecksum;
+
+	private MappingChecksum(XContentBuilder mapping, String settings, String mappingChecksum, String settingsChecksum) {
+		this.mapping = mapping;
+		this.settings = settings;
+		this.mappingChecksum = mappingChecksum;
+		this.settingsChecksum = settingsChecksum;
+	}
+
+	/**
+	 * Generates the mapping and settings of a model and their checksums
+	 *
+	 * @param mapper
+	 *            the model mapper
+	 * @return the checksums
+	 * @throws IOException
+	 *             if the mapping cannot be generated
+	 */
+	@SuppressWarnings("unchecked")
+	public static MappingChecksum of(ModelMapper<?> mapper) throws IOException {
+		XContentBuilder generated = MappingUtil.getMapping(mapper);
+		String settings = MappingUtil.getSettingsMapper(mapper).string();
+		String mappingChecksum = Long.toHexString(HashUtil.hash(generated.bytes()));
+		String settingsChecksum = Long.toHexString(HashUtil.hash(settings.getBytes("UTF-8")));
+
+		// Add the checksums to the _meta of the type
+		Map<String, Object> source = XContentHelper.convertToMap(generated.bytes(), true).v2();
+		Map<String, Object> type = (Map<String, Object>) source.get(mapper.getTypeName());
+		Map<String, Object> meta = (Map<String, Object>) type.get("_meta");
+		if (meta == null) {
+			meta = new LinkedHashMap<String, Object>();
+			type.put("_meta", meta);
+		}
+		meta.put(MAPPING_KEY, mappingChecksum);
+		meta.put(SETTINGS_KEY, settingsChecksum);
+
+		return new MappingChecksum(XContentFactory.jsonBuilder().map(source), settings, mappingChecksum, settingsChecksum);
+	}
+
+	/**
+	 * Gets the type mapping to put, including the checksums
+	 */
+	public XContentBuilder getMapping() {
+		return mapping;
+	}
+
+	/**
+	 * Gets the index settings
+	 */
+	public String getSettings() {
+		return settings;
+	}
+
+	/**
+	 * Checks if an existing type mapping was put from the same generated mapping
+	 *
+	 * @param existing
+	 *            the existing mapping, may be null
+	 */
+	public boolean isMappingCurrent(MappingMetaData existing) {
+		return mappingChecksum.equals(getMeta(existing, MAPPING_KEY));
+	}
+
+	/**
+	 * Checks if an existing index was created from different generated settings. Indexes without a checksum are
+	 * assumed to be unchanged.
+	 *
+	 * @param existing
+	 *            the existing mapping, may be null
+	 */
+	public boolean isSettingsChanged(MappingMetaData existing) {
+		Object previous = getMeta(existing, SETTINGS_KEY);
+		return previous != null && !settingsChecksum.equals(previous);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object getMeta(MappingMetaData existing, String key) {
+		if (existing == null) {
+			return null;
+		}
+		try {
+			Map<String, Object> meta = (Map<String, Object>) existing.getSourceAsMap().get("_meta");
+			return meta == null ? null : meta.get(key);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof MappingChecksum)) {
+			return false;
+		}
+		MappingChecksum other = (MappingChecksum) obj;
+		return mappingChecksum.equals(other.mappingChecksum) && settingsChecksum.equals(other.settingsChecksum);
+	}
+
+	@Override
+	public int hashCode() {
+		return mappingChecksum.hashCode() * 31 + settingsChecksum.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "mapping " + mappingChecksum + ", settings " + settingsChecksum;
+	}
+
+}
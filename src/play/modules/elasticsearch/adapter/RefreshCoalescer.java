@@ -0,0 +1,123 @@
+package play.modules.elasticsearch.adapter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.client.Client;
+
+import play.Logger;
+
+/**
+ * Refreshes single indexes on request, coalescing concurrent requests for the same index into one refresh.
+ *
+ * <p>
+ * The first caller for an index waits until the interval since the previous refresh of the index has passed, then
+ * refreshes it. Callers arriving in the meantime join that refresh instead of issuing their own, so an index is
+ * refreshed at most once per interval no matter how many readers wait for their writes.
+ */
+public class RefreshCoalescer {
+
+	/** The minimum time between two refreshes of an index, in milliseconds */
+	private final long interval;
+
+	/** The refresh which is about to run, by index */
+	private final ConcurrentMap<String, PendingRefresh> pending = new ConcurrentHashMap<String, PendingRefresh>();
+
+	/** The time the last refresh of an index started, in milliseconds */
+	private final ConcurrentMap<String, Long> lastRefresh = new ConcurrentHashMap<String, Long>();
+
+	/** Number of refresh requests */
+	private final AtomicLong requested = new AtomicLong();
+
+	/** Number of refreshes sent to Elastic Search */
+	private final AtomicLong executed = new AtomicLong();
+
+	/**
+	 * Instantiates a new refresh coalescer.
+	 *
+	 * @param interval
+	 *            the minimum time between two refreshes of an index, in milliseconds
+	 */
+	public RefreshCoalescer(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * Refreshes an index, and returns once a refresh which started after this call has completed
+	 *
+	 * @param client
+	 *            the client
+	 * @param indexName
+	 *            the index to refresh
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the refresh
+	 */
+	public void refresh(Client client, String indexName) throws InterruptedException {
+		requested.incrementAndGet();
+		PendingRefresh refresh = new PendingRefresh();
+		PendingRefresh existing = pending.putIfAbsent(indexName, refresh);
+		if (existing != null) {
+			// Join the refresh which has not started yet
+			existing.await();
+			return;
+		}
+
+		try {
+			Long last = lastRefresh.get(indexName);
+			long wait = last == null ? 0 : last.longValue() + interval - System.currentTimeMillis();
+			if (wait > 0) {
+				Thread.sleep(wait);
+			}
+
+			// Callers arriving from now on need another refresh
+			pending.remove(indexName, refresh);
+			lastRefresh.put(indexName, Long.valueOf(System.currentTimeMillis()));
+			client.admin().indices().prepareRefresh(indexName).execute().actionGet();
+			executed.incrementAndGet();
+			Logger.debug("Refreshed index %s", indexName);
+		} catch (InterruptedException e) {
+			refresh.failure = new IllegalStateException("Refresh of index " + indexName + " was interrupted");
+			throw e;
+		} catch (RuntimeException e) {
+			refresh.failure = e;
+			throw e;
+		} finally {
+			pending.remove(indexName, refresh);
+			refresh.done.countDown();
+		}
+	}
+
+	/**
+	 * Gets the number of refresh requests
+	 */
+	public long getRequested() {
+		return requested.get();
+	}
+
+	/**
+	 * Gets the number of refreshes sent to Elastic Search
+	 */
+	public long getExecuted() {
+		return executed.get();
+	}
+
+	/**
+	 * A refresh which callers can join until it starts
+	 */
+	private static class PendingRefresh {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile RuntimeException failure;
+
+		void await() throws InterruptedException {
+			done.await();
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,20 @@
+package play.modules.elasticsearch.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the field holding the time a model was last modified, a {@link java.util.Date}, {@link java.util.Calendar} or
+ * a long of milliseconds. Delta reindexes only send the models modified after a given time, models without such a
+ * field are skipped by them.
+ * 
+ * <p>
+ * The application has to keep the field up to date, e.g. in a {@code @PreUpdate} callback.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ElasticSearchModifiedAt {
+
+}
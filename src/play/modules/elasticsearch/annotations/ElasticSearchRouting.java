@@ -0,0 +1,21 @@
+package play.modules.elasticsearch.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Routes the documents of a model by the value of this field instead of by their id, e.g. by tenant. All documents
+ * with the same value are stored in the same shard, so queries passing the value to {@code Query.routing(...)} only
+ * hit that shard. References to other models are routed by the key of the referenced model.
+ * 
+ * <p>
+ * The routing value is required for every index, update, delete and get request of the model, so it should not change
+ * once a document is indexed.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ElasticSearchRouting {
+
+}
@@ -0,0 +1,143 @@
+package play.modules.elasticsearch.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.transport.ConnectTransportException;
+
+import play.Logger;
+
+/**
+ * Client which spreads requests over the nodes by their average latency, see
+ * {@link NodeLatency#choose(List, Random)}.
+ *
+ * <p>
+ * Each node is reached through its own client. Latencies are measured on every request and by pinging all nodes
+ * periodically with a local cluster health request, so that slow or failed nodes are noticed without traffic. Admin
+ * requests go to the first node.
+ */
+public class LeastLatencyClient extends FilterClient {
+
+	private final List<NodeLatency> nodes;
+
+	private final ScheduledExecutorService pinger;
+
+	private final Random random = new Random();
+
+	/**
+	 * Instantiates a new least latency client.
+	 *
+	 * @param nodes
+	 *            the nodes, not empty
+	 * @param pingInterval
+	 *            the interval at which all nodes are pinged
+	 */
+	public LeastLatencyClient(List<NodeLatency> nodes, TimeValue pingInterval) {
+		super(nodes.get(0).getClient());
+		this.nodes = Collections.unmodifiableList(new ArrayList<NodeLatency>(nodes));
+
+		pinger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "elasticsearch-node-pinger");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		pinger.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				ping();
+			}
+		}, 0, pingInterval.millis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the tracked nodes
+	 */
+	public List<NodeLatency> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Pings all nodes
+	 */
+	void ping() {
+		for (final NodeLatency node : nodes) {
+			final long start = System.nanoTime();
+			node.getClient().admin().cluster().prepareHealth().setLocal(true).execute(new ActionListener<ClusterHealthResponse>() {
+				public void onResponse(ClusterHealthResponse response) {
+					node.record(System.nanoTime() - start);
+				}
+
+				public void onFailure(Throwable e) {
+					if (node.isHealthy()) {
+						Logger.warn("Elastic Search node %s did not answer: %s", node.getAddress(), e.getMessage());
+					}
+					node.failed();
+				}
+			});
+		}
+	}
+
+	// The signatures are those of Client, which uses the raw ActionRequest in Elastic Search 1.x
+	@Override
+	@SuppressWarnings("rawtypes")
+	public <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder, Client>> ActionFuture<Response> execute(
+			Action<Request, Response, RequestBuilder, Client> action, Request request) {
+		PlainActionFuture<Response> future = PlainActionFuture.newFuture();
+		execute(action, request, future);
+		return future;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder, Client>> void execute(
+			Action<Request, Response, RequestBuilder, Client> action, Request request, final ActionListener<Response> listener) {
+		final NodeLatency node = NodeLatency.choose(nodes, random);
+		final long start = System.nanoTime();
+		node.getClient().execute(action, request, new ActionListener<Response>() {
+			public void onResponse(Response response) {
+				node.record(System.nanoTime() - start);
+				listener.onResponse(response);
+			}
+
+			public void onFailure(Throwable e) {
+				// Only connection problems say something about the node
+				Throwable cause = ExceptionsHelper.unwrapCause(e);
+				if (cause instanceof ConnectTransportException || cause instanceof NoNodeAvailableException) {
+					node.failed();
+				} else {
+					node.record(System.nanoTime() - start);
+				}
+				listener.onFailure(e);
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		pinger.shutdownNow();
+		for (NodeLatency node : nodes) {
+			node.getClient().close();
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+package play.modules.elasticsearch.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.client.Client;
+
+/**
+ * Latency and health of a single Elastic Search node, tracked as an exponentially weighted moving average over requests
+ * and pings.
+ */
+public class NodeLatency {
+
+	/** Weight of a new sample in the moving average */
+	private static final double ALPHA = 0.3;
+
+	/** The node address, e.g. host:9300 */
+	private final String address;
+
+	/** The client connected to this node only */
+	private final Client client;
+
+	/** The average latency in nanoseconds, 0 until the first sample */
+	private volatile double average = 0;
+
+	/** False after a connection failure, until the node answers again */
+	private volatile boolean healthy = true;
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Instantiates a new node latency.
+	 *
+	 * @param address
+	 *            the node address
+	 * @param client
+	 *            the client connected to this node only
+	 */
+	public NodeLatency(String address, Client client) {
+		this.address = address;
+		this.client = client;
+	}
+
+	/**
+	 * Records a successful request or ping
+	 *
+	 * @param nanos
+	 *            the time it took
+	 */
+	public synchronized void record(long nanos) {
+		average = average == 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * average;
+		healthy = true;
+		requests.incrementAndGet();
+	}
+
+	/**
+	 * Records a connection failure, which takes the node out of rotation until it answers again
+	 */
+	public void failed() {
+		healthy = false;
+		failures.incrementAndGet();
+	}
+
+	/**
+	 * Chooses a node at random, weighted by the inverse of its average latency, so a node twice as fast gets twice the
+	 * requests and no node gets all of them. Unhealthy nodes are only used if no node is healthy, nodes without
+	 * samples weigh as much as the fastest node so they get measured.
+	 *
+	 * @param nodes
+	 *            the nodes, not empty
+	 * @param random
+	 *            the source of randomness
+	 * @return the chosen node
+	 */
+	public static NodeLatency choose(List<NodeLatency> nodes, Random random) {
+		List<NodeLatency> candidates = new ArrayList<NodeLatency>(nodes.size());
+		for (NodeLatency node : nodes) {
+			if (node.healthy) {
+				candidates.add(node);
+			}
+		}
+		if (candidates.isEmpty()) {
+			candidates = nodes;
+		}
+
+		double[] weights = new double[candidates.size()];
+		double fastest = 0;
+		for (int i = 0; i < weights.length; i++) {
+			double average = candidates.get(i).average;
+			if (average > 0) {
+				weights[i] = 1 / average;
+				fastest = Math.max(fastest, weights[i]);
+			}
+		}
+		double total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			if (weights[i] == 0) {
+				weights[i] = fastest > 0 ? fastest : 1;
+			}
+			total += weights[i];
+		}
+
+		double point = random.nextDouble() * total;
+		for (int i = 0; i < weights.length; i++) {
+			point -= weights[i];
+			if (point < 0) {
+				return candidates.get(i);
+			}
+		}
+		return candidates.get(candidates.size() - 1);
+	}
+
+	public String getAddress() {
+		return address;
+	}
+
+	public Client getClient() {
+		return client;
+	}
+
+	/**
+	 * Gets the average latency in milliseconds
+	 */
+	public double getAverageMillis() {
+		return average / 1000000;
+	}
+
+	public boolean isHealthy() {
+		return healthy;
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %.2f ms, %s, %d requests, %d failures", address, getAverageMillis(), healthy ? "healthy" : "unhealthy", getRequests(),
+				getFailures());
+	}
+
+}
@@ -0,0 +1,58 @@
+package play.modules.elasticsearch.deadletter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+
+/**
+ * An index event which could not be written to Elastic Search. Like outbox entries, only the document is recorded,
+ * its current state is sent when the dead letter is replayed.
+ */
+@Entity(name = "ElasticSearchDeadLetter")
+@Table(name = "elasticsearch_dead_letter")
+public class DeadLetter {
+
+	@Id
+	@GeneratedValue
+	public Long id;
+
+	/** The index type of the model */
+	@Column(nullable = false)
+	public String type;
+
+	/** The document id */
+	@Column(nullable = false)
+	public String documentId;
+
+	/** The routing value, null if the model is routed by id */
+	public String routing;
+
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false, length = 6)
+	public Type operation;
+
+	/** When the event happened, in milliseconds */
+	public long created;
+
+	/** When the event was given up on, in milliseconds */
+	public long failed;
+
+	/** Number of attempts to send the event */
+	public int attempts;
+
+	/** Why the last attempt failed */
+	@Column(length = 1000)
+	public String error;
+
+	@Override
+	public String toString() {
+		return "DeadLetter [" + operation + " " + type + "/" + documentId + ": " + error + "]";
+	}
+
+}
@@ -0,0 +1,209 @@
+package play.modules.elasticsearch.deadletter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import play.Logger;
+import play.db.jpa.JPA;
+import play.modules.elasticsearch.DocumentReference;
+import play.modules.elasticsearch.DocumentRelay;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * The dead-letter store, a table of the index events which could not be written to Elastic Search. Dead letters can
+ * be inspected and replayed from the admin pages.
+ *
+ * <p>
+ * The store uses its own entity manager and transactions, so dead letters are kept even if the transaction of the
+ * caller rolls back.
+ */
+public class DeadLetters {
+
+	/** Maximum length of the stored error message */
+	private static final int MAX_ERROR_LENGTH = 1000;
+
+	/** Whether dead letters are stored, otherwise they are logged and dropped */
+	private static volatile boolean enabled = false;
+
+	private DeadLetters() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		DeadLetters.enabled = enabled;
+	}
+
+	/**
+	 * Stores an event which could not be written
+	 *
+	 * @param reference
+	 *            the document of the event
+	 * @param attempts
+	 *            the number of attempts to send it
+	 * @param error
+	 *            why the last attempt failed
+	 */
+	public static void store(DocumentReference reference, int attempts, String error) {
+		if (!enabled) {
+			Logger.error("Dropping %s after %d attempts: %s", reference, attempts, error);
+			return;
+		}
+
+		DeadLetter letter = new DeadLetter();
+		letter.type = reference.getType();
+		letter.documentId = reference.getDocumentId();
+		letter.routing = reference.getRouting();
+		letter.operation = reference.getOperation();
+		letter.created = reference.getTimestamp();
+		letter.failed = System.currentTimeMillis();
+		letter.attempts = attempts;
+		letter.error = error == null || error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+
+		EntityManager em = JPA.newEntityManager();
+		try {
+			em.getTransaction().begin();
+			em.persist(letter);
+			em.getTransaction().commit();
+			Logger.warn("Stored dead letter for %s after %d attempts: %s", reference, attempts, error);
+		} catch (Throwable t) {
+			Logger.error("Cannot store dead letter for %s (%s): %s", reference, error, ExceptionUtil.getStackTrace(t));
+		} finally {
+			close(em);
+		}
+	}
+
+	/**
+	 * Counts the dead letters
+	 *
+	 * @param type
+	 *            the index type to count, null for all
+	 * @return the number of dead letters
+	 */
+	public static long count(String type) {
+		EntityManager em = JPA.newEntityManager();
+		try {
+			return ((Number) bind(em.createQuery("select count(d) from ElasticSearchDeadLetter d" + where(type)), type, 0).getSingleResult()).longValue();
+		} finally {
+			close(em);
+		}
+	}
+
+	/**
+	 * Lists dead letters, oldest first
+	 *
+	 * @param type
+	 *            the index type to list, null for all
+	 * @param first
+	 *            the index of the first dead letter to list
+	 * @param max
+	 *            the maximum number of dead letters to list
+	 * @return the dead letters
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<DeadLetter> list(String type, int first, int max) {
+		EntityManager em = JPA.newEntityManager();
+		try {
+			return bind(em.createQuery("select d from ElasticSearchDeadLetter d" + where(type) + " order by d.id"), type, 0).setFirstResult(first).setMaxResults(max).getResultList();
+		} finally {
+			close(em);
+		}
+	}
+
+	/**
+	 * Sends the current state of the documents of all dead letters in bulks. Replayed dead letters are deleted, the
+	 * others are kept with another attempt counted.
+	 *
+	 * @param type
+	 *            the index type to replay, null for all
+	 * @param batchSize
+	 *            the maximum number of dead letters sent in one bulk request
+	 * @return the number of replayed dead letters
+	 */
+	@SuppressWarnings("unchecked")
+	public static int replay(String type, int batchSize) {
+		int replayed = 0;
+		long last = 0;
+		while (true) {
+			EntityManager em = JPA.newEntityManager();
+			try {
+				em.getTransaction().begin();
+				List<DeadLetter> letters = bind(em.createQuery("select d from ElasticSearchDeadLetter d" + where(type) + " order by d.id"), type, last).setMaxResults(batchSize)
+						.getResultList();
+				if (letters.isEmpty()) {
+					em.getTransaction().commit();
+					break;
+				}
+
+				List<DocumentReference> references = new ArrayList<DocumentReference>(letters.size());
+				for (DeadLetter letter : letters) {
+					references.add(new DocumentReference(letter.type, letter.documentId, letter.routing, letter.operation, letter.created));
+				}
+				boolean[] done = DocumentRelay.send(em, references);
+				for (int i = 0; i < letters.size(); i++) {
+					DeadLetter letter = letters.get(i);
+					if (done[i]) {
+						em.remove(letter);
+						replayed++;
+					} else {
+						letter.attempts++;
+						letter.failed = System.currentTimeMillis();
+					}
+				}
+				last = letters.get(letters.size() - 1).id.longValue();
+				em.getTransaction().commit();
+			} finally {
+				close(em);
+			}
+		}
+		Logger.info("Replayed %d dead letters", replayed);
+		return replayed;
+	}
+
+	/**
+	 * Deletes dead letters without sending them
+	 *
+	 * @param type
+	 *            the index type to delete, null for all
+	 * @return the number of deleted dead letters
+	 */
+	public static int discard(String type) {
+		EntityManager em = JPA.newEntityManager();
+		try {
+			em.getTransaction().begin();
+			int deleted = bind(em.createQuery("delete from ElasticSearchDeadLetter d" + where(type)), type, 0).executeUpdate();
+			em.getTransaction().commit();
+			return deleted;
+		} finally {
+			close(em);
+		}
+	}
+
+	/**
+	 * Restricts a query to the dead letters after an id, and optionally to a type
+	 */
+	private static String where(String type) {
+		return " where d.id > :last" + (type == null ? "" : " and d.type = :type");
+	}
+
+	private static Query bind(Query query, String type, long last) {
+		query.setParameter("last", Long.valueOf(last));
+		if (type != null) {
+			query.setParameter("type", type);
+		}
+		return query;
+	}
+
+	private static void close(EntityManager em) {
+		if (em.getTransaction().isActive()) {
+			em.getTransaction().rollback();
+		}
+		em.close();
+	}
+
+}
@@ -0,0 +1,424 @@
+package play.modules.elasticsearch.journal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import play.Logger;
+import play.db.Model;
+import play.modules.elasticsearch.DocumentReference;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.mapping.ModelMapper;
+
+/**
+ * Append-only journal of the index events handed to the indexer, so events which were not indexed when the JVM
+ * stopped are sent again on the next start.
+ *
+ * <p>
+ * The journal is a directory of memory-mapped segment files of a fixed size. A record only refers to the document
+ * (operation, time, type, id and routing), its current state is loaded when it is replayed. The indexer acknowledges
+ * events in the order they were appended, which moves the checkpoint forward and deletes the segments before it.
+ * Records are written to the mapped files and survive a crash of the JVM, but not of the operating system.
+ *
+ * <p>
+ * Events whose write failed count as acknowledged once they were handed to the retry policy or the dead letters. Only
+ * a failed replay keeps the checkpoint where it is until the next start.
+ */
+public class IndexJournal {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	/** Length which marks the end of the records in a full segment */
+	private static final int END_OF_SEGMENT = -1;
+
+	/** Routing length of records without routing */
+	private static final int NO_ROUTING = 0xFFFF;
+
+	/** The directory of the journal files */
+	private final File directory;
+
+	/** The size of a segment file in bytes */
+	private final int segmentSize;
+
+	/** Checkpoint position and segment size, mapped from the checkpoint file */
+	private final MappedByteBuffer checkpointBuffer;
+
+	/** Guards the checkpoint and the deletion of segments */
+	private final Object checkpointLock = new Object();
+
+	/** End positions of the appended records which have not been acknowledged yet */
+	private final PositionQueue pending = new PositionQueue();
+
+	/** The number of the oldest segment file */
+	private long firstSegment;
+
+	/** The segment records are appended to */
+	private MappedByteBuffer segment;
+
+	/** The number of the segment records are appended to */
+	private long segmentNumber;
+
+	/** Offset of the next record in the segment */
+	private int writeOffset;
+
+	/** The end of the records written before the journal was opened */
+	private final long replayEnd;
+
+	/** The position of the next record to replay */
+	private long replayPosition;
+
+	/** The segment replayed records are read from */
+	private ByteBuffer replaySegment;
+
+	/** The number of the segment replayed records are read from */
+	private long replaySegmentNumber = -1;
+
+	/** The end of the latest acknowledged record */
+	private long acknowledged = -1;
+
+	/** True while the records written before the journal was opened are replayed */
+	private boolean replaying;
+
+	/** True if the replay failed, the checkpoint stays until the next start */
+	private boolean replayFailed;
+
+	/**
+	 * Opens the journal in a directory, creating it if needed.
+	 *
+	 * @param directory
+	 *            the directory of the journal files
+	 * @param segmentSize
+	 *            the size of a segment file in bytes, only used for new journals
+	 * @throws IOException
+	 *             if the journal cannot be opened
+	 */
+	public IndexJournal(File directory, int segmentSize) throws IOException {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create journal directory " + directory);
+		}
+
+		// The checkpoint file holds the checkpoint position and the segment size the positions are based on
+		checkpointBuffer = map(new File(directory, "checkpoint"), 16, FileChannel.MapMode.READ_WRITE);
+		long checkpoint = checkpointBuffer.getLong(0);
+		int storedSize = checkpointBuffer.getInt(8);
+		if (storedSize != 0 && storedSize != segmentSize) {
+			Logger.warn("Journal %s has segments of %d bytes, ignoring the configured %d bytes", directory, storedSize, segmentSize);
+			segmentSize = storedSize;
+		}
+		this.segmentSize = segmentSize;
+		checkpointBuffer.putInt(8, segmentSize);
+
+		// Find the end of the records in the latest segment
+		long[] segments = listSegments();
+		long checkpointSegment = checkpoint / segmentSize;
+		if (segments.length == 0 || segments[segments.length - 1] < checkpointSegment) {
+			segmentNumber = checkpointSegment;
+			writeOffset = (int) (checkpoint % segmentSize);
+		} else {
+			segmentNumber = segments[segments.length - 1];
+			writeOffset = segmentNumber == checkpointSegment ? (int) (checkpoint % segmentSize) : 0;
+		}
+		segment = map(segmentFile(segmentNumber), segmentSize, FileChannel.MapMode.READ_WRITE);
+		while (writeOffset < segmentSize - 4) {
+			int length = segment.getInt(writeOffset);
+			if (length == 0) {
+				break;
+			}
+			if (length == END_OF_SEGMENT) {
+				writeOffset = segmentSize;
+				break;
+			}
+			if (length < 0 || writeOffset + 4 + length > segmentSize) {
+				Logger.warn("Journal segment %s is corrupt at offset %d, ignoring the rest of it", segmentFile(segmentNumber), writeOffset);
+				writeOffset = segmentSize;
+				break;
+			}
+			writeOffset += 4 + length;
+		}
+		replayEnd = position(segmentNumber, writeOffset);
+		replayPosition = checkpoint;
+		replaying = replayPosition < replayEnd;
+
+		// Segments before the checkpoint are left over from a truncation which did not finish
+		firstSegment = segments.length == 0 ? segmentNumber : segments[0];
+		truncate(checkpointSegment);
+		Logger.info("Opened journal %s, %d bytes to replay", directory, replayEnd - checkpoint);
+	}
+
+	/**
+	 * Appends an event. Events have to be handed to the indexer in the order they were appended.
+	 *
+	 * @param event
+	 *            the event
+	 * @throws IOException
+	 *             if a new segment cannot be created
+	 */
+	public synchronized void append(ElasticSearchIndexEvent event) throws IOException {
+		Model object = event.getObject();
+		@SuppressWarnings("unchecked")
+		ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(object.getClass());
+		byte[] type = encode(mapper.getTypeName());
+		byte[] documentId = encode(mapper.getDocumentId(object));
+		String routingValue = mapper.getRouting(object);
+		byte[] routing = routingValue == null ? null : encode(routingValue);
+		int length = 1 + 8 + 2 + type.length + 2 + documentId.length + 2 + (routing == null ? 0 : routing.length);
+		if (length + 8 > segmentSize) {
+			throw new IllegalArgumentException("Event " + event + " does not fit into a journal segment");
+		}
+
+		// Keep room for the end of segment marker
+		if (writeOffset + 4 + length > segmentSize - 4) {
+			roll();
+		}
+
+		// The length is written last, so a partially written record is never read
+		segment.position(writeOffset + 4);
+		segment.put((byte) event.getType().ordinal());
+		segment.putLong(event.getTimestamp());
+		segment.putShort((short) type.length);
+		segment.put(type);
+		segment.putShort((short) documentId.length);
+		segment.put(documentId);
+		if (routing == null) {
+			segment.putShort((short) NO_ROUTING);
+		} else {
+			segment.putShort((short) routing.length);
+			segment.put(routing);
+		}
+		segment.putInt(writeOffset, length);
+		writeOffset += 4 + length;
+		pending.add(position(segmentNumber, writeOffset));
+	}
+
+	/**
+	 * Acknowledges the oldest appended events
+	 *
+	 * @param count
+	 *            the number of events the indexer processed
+	 * @param success
+	 *            false if the bulk of the events failed before each of them was written or handed to the retry policy
+	 */
+	public void acknowledge(int count, boolean success) {
+		long end = pending.remove(count);
+		synchronized (checkpointLock) {
+			if (!success) {
+				Logger.warn("%d index events were neither written nor retried, the journal %s moves past them", count, directory);
+			}
+			if (end >= 0) {
+				acknowledged = end;
+				if (!replayFailed && !replaying) {
+					checkpoint(end);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the next records written before the journal was opened
+	 *
+	 * @param max
+	 *            the maximum number of records to read
+	 * @return the records, empty once all of them have been read
+	 * @throws IOException
+	 *             if a segment cannot be read
+	 */
+	public List<DocumentReference> readReplay(int max) throws IOException {
+		List<DocumentReference> references = new ArrayList<DocumentReference>();
+		while (references.size() < max && replayPosition < replayEnd) {
+			long number = replayPosition / segmentSize;
+			int offset = (int) (replayPosition % segmentSize);
+			if (replaySegmentNumber != number) {
+				replaySegment = map(segmentFile(number), segmentSize, FileChannel.MapMode.READ_ONLY);
+				replaySegmentNumber = number;
+			}
+
+			int length = offset < segmentSize - 4 ? replaySegment.getInt(offset) : END_OF_SEGMENT;
+			if (length == END_OF_SEGMENT || length == 0) {
+				replayPosition = position(number + 1, 0);
+				continue;
+			}
+			replaySegment.position(offset + 4);
+			Type operation = Type.values()[replaySegment.get()];
+			long timestamp = replaySegment.getLong();
+			String type = decode(replaySegment, replaySegment.getShort() & 0xFFFF);
+			String documentId = decode(replaySegment, replaySegment.getShort() & 0xFFFF);
+			int routingLength = replaySegment.getShort() & 0xFFFF;
+			String routing = routingLength == NO_ROUTING ? null : decode(replaySegment, routingLength);
+			references.add(new DocumentReference(type, documentId, routing, operation, timestamp));
+			replayPosition += 4 + length;
+		}
+		return references;
+	}
+
+	/**
+	 * Ends the replay of the records written before the journal was opened
+	 *
+	 * @param success
+	 *            false if any of them could not be written
+	 */
+	public void replayed(boolean success) {
+		replaySegment = null;
+		synchronized (checkpointLock) {
+			replaying = false;
+			if (!success) {
+				Logger.warn("Replayed index events failed, the journal %s will replay them on the next start", directory);
+				replayFailed = true;
+			} else {
+				checkpoint(Math.max(acknowledged, replayEnd));
+			}
+		}
+	}
+
+	/**
+	 * Checks if there are records written before the journal was opened which have not been replayed
+	 */
+	public boolean isReplaying() {
+		synchronized (checkpointLock) {
+			return replaying;
+		}
+	}
+
+	/**
+	 * Gets the number of appended events which have not been acknowledged yet
+	 */
+	public int getPending() {
+		return pending.size();
+	}
+
+	private void checkpoint(long position) {
+		checkpointBuffer.putLong(0, position);
+		truncate(position / segmentSize);
+	}
+
+	/**
+	 * Deletes the segments before a segment
+	 */
+	private void truncate(long segmentNumber) {
+		while (firstSegment < segmentNumber) {
+			File file = segmentFile(firstSegment);
+			if (file.exists() && !file.delete()) {
+				// Still mapped on some platforms, try again with the next checkpoint
+				Logger.debug("Cannot delete journal segment %s yet", file);
+				return;
+			}
+			firstSegment++;
+		}
+	}
+
+	/**
+	 * Marks the end of the current segment and starts the next one
+	 */
+	private void roll() throws IOException {
+		if (writeOffset <= segmentSize - 4) {
+			segment.putInt(writeOffset, END_OF_SEGMENT);
+		}
+		segmentNumber++;
+		segment = map(segmentFile(segmentNumber), segmentSize, FileChannel.MapMode.READ_WRITE);
+		writeOffset = 0;
+	}
+
+	private long position(long number, int offset) {
+		return number * segmentSize + offset;
+	}
+
+	private File segmentFile(long number) {
+		return new File(directory, String.format("%019d%s", Long.valueOf(number), SEGMENT_SUFFIX));
+	}
+
+	private long[] listSegments() {
+		String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		long[] numbers = new long[names == null ? 0 : names.length];
+		for (int i = 0; i < numbers.length; i++) {
+			numbers[i] = Long.parseLong(names[i].substring(0, names[i].length() - SEGMENT_SUFFIX.length()));
+		}
+		Arrays.sort(numbers);
+		return numbers;
+	}
+
+	private static MappedByteBuffer map(File file, int size, FileChannel.MapMode mode) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+		try {
+			// The mapping stays valid after the channel is closed
+			return raf.getChannel().map(mode, 0, mode == FileChannel.MapMode.READ_ONLY ? Math.min(size, raf.length()) : size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static byte[] encode(String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		if (bytes.length >= NO_ROUTING) {
+			throw new IllegalArgumentException("Value too long for the journal: " + value);
+		}
+		return bytes;
+	}
+
+	private static String decode(ByteBuffer buffer, int length) {
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * FIFO of record end positions, without boxing them
+	 */
+	private static class PositionQueue {
+
+		private long[] positions = new long[1024];
+
+		private int head;
+
+		private int size;
+
+		synchronized void add(long position) {
+			if (size == positions.length) {
+				long[] grown = new long[positions.length * 2];
+				for (int i = 0; i < size; i++) {
+					grown[i] = positions[(head + i) % positions.length];
+				}
+				positions = grown;
+				head = 0;
+			}
+			positions[(head + size) % positions.length] = position;
+			size++;
+		}
+
+		/**
+		 * Removes the oldest positions
+		 *
+		 * @return the last position removed, -1 if the queue was empty
+		 */
+		synchronized long remove(int count) {
+			long last = -1;
+			for (int i = 0; i < count && size > 0; i++) {
+				last = positions[head];
+				head = (head + 1) % positions.length;
+				size--;
+			}
+			return last;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+	}
+
+}
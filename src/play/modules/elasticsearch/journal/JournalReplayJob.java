@@ -0,0 +1,83 @@
+package play.modules.elasticsearch.journal;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import play.Logger;
+import play.db.jpa.JPA;
+import play.db.jpa.NoTransaction;
+import play.jobs.Job;
+import play.modules.elasticsearch.DocumentReference;
+import play.modules.elasticsearch.DocumentRelay;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * Sends the events which were journaled but not acknowledged before the last stop, in their current state and in
+ * bulks. Documents which fail are handed to the retry policy, the journal checkpoint only stays where it is if the
+ * replay itself fails.
+ *
+ * <p>
+ * The {@link NoTransaction} annotation keeps the JPAPlugin out of the way, the job uses its own entity manager per
+ * bulk.
+ */
+@NoTransaction
+public class JournalReplayJob extends Job<Void> {
+
+	/** The journal to replay */
+	private final IndexJournal journal;
+
+	/** Maximum number of events sent in one bulk request */
+	private final int batchSize;
+
+	public JournalReplayJob(IndexJournal journal, int batchSize) {
+		this.journal = journal;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void doJob() {
+		if (!JPA.isEnabled()) {
+			Logger.warn("JPA is not enabled, cannot replay the Elastic Search journal");
+			journal.replayed(false);
+			return;
+		}
+
+		boolean success = true;
+		int replayed = 0;
+		long start = System.currentTimeMillis();
+		try {
+			List<DocumentReference> batch;
+			while (!(batch = journal.readReplay(batchSize)).isEmpty()) {
+				EntityManager em = JPA.newEntityManager();
+				try {
+					em.getTransaction().begin();
+					boolean[] done = DocumentRelay.send(em, batch);
+					Set<String> retried = new HashSet<String>();
+					for (int i = 0; i < done.length; i++) {
+						// A retry sends the current state, once per document is enough
+						if (!done[i] && retried.add(batch.get(i).getType() + "/" + batch.get(i).getDocumentId())) {
+							ElasticSearchPlugin.getRetryPolicy().failed(batch.get(i), 1, true, "Elastic Search did not write the document, see the log");
+						}
+					}
+				} finally {
+					if (em.getTransaction().isActive()) {
+						em.getTransaction().rollback();
+					}
+					em.close();
+				}
+				replayed += batch.size();
+			}
+		} catch (Throwable t) {
+			success = false;
+			Logger.error("Elastic Search journal replay failed: %s", ExceptionUtil.getStackTrace(t));
+		} finally {
+			journal.replayed(success);
+		}
+		Logger.info("Replayed %d journaled index events in %d ms", replayed, System.currentTimeMillis() - start);
+	}
+
+}
@@ -0,0 +1,255 @@
+package play.modules.elasticsearch.mapping;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Transient;
+
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.hibernate.type.Type;
+
+import play.modules.elasticsearch.annotations.ElasticSearchEmbedded;
+import play.modules.elasticsearch.annotations.ElasticSearchIgnore;
+import play.modules.elasticsearch.util.RateLimiter;
+import play.modules.elasticsearch.util.ReflectionUtil;
+
+/**
+ * Loads the associations which the field mappers of a model traverse, for a batch of models at once. Serializing the
+ * batch then costs one query per association instead of one lazy load per model and association.
+ *
+ * <p>
+ * Collections are loaded by fetch joining them to the models, other associations by their ids. Associations annotated
+ * with {@link ElasticSearchEmbedded} are followed to the associations their own fields traverse. The models have to
+ * be managed by the entity manager, others are left alone. The number of queries depends on the associations, the
+ * number of models and the depth of the embedded associations, a {@link RateLimiter} can pace them.
+ */
+public abstract class AssociationPrefetcher {
+
+	/** Maximum number of ids in one IN clause */
+	private static final int MAX_IDS = 500;
+
+	/** How deep embedded associations are followed */
+	private static final int MAX_DEPTH = 5;
+
+	private AssociationPrefetcher() {
+		// No public instantiation allowed
+	}
+
+	/**
+	 * Loads the associations of models which their mappers traverse
+	 *
+	 * @param em
+	 *            the entity manager which manages the models
+	 * @param models
+	 *            the models, of any class
+	 * @return the number of queries run
+	 */
+	public static int prefetch(EntityManager em, Collection<?> models) {
+		try {
+			return prefetch(em, models, null);
+		} catch (InterruptedException e) {
+			// Nothing waits without a rate limiter
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading associations", e);
+		}
+	}
+
+	/**
+	 * Loads the associations of models which their mappers traverse, taking a permit before every query
+	 *
+	 * @param em
+	 *            the entity manager which manages the models
+	 * @param models
+	 *            the models, of any class
+	 * @param queries
+	 *            paces the queries, null for no limit
+	 * @return the number of queries run
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for a permit
+	 */
+	public static int prefetch(EntityManager em, Collection<?> models, RateLimiter queries) throws InterruptedException {
+		if (models.isEmpty()) {
+			return 0;
+		}
+		Queries runner = new Queries((Session) em.getDelegate(), queries);
+		for (Map.Entry<Class<?>, List<Object>> entry : byClass(models).entrySet()) {
+			prefetch(runner, entry.getKey(), entry.getValue(), new String[0], 0);
+		}
+		return runner.count;
+	}
+
+	/**
+	 * Loads the associations of objects of one class
+	 *
+	 * @param only
+	 *            the fields the mapper uses, all if empty
+	 */
+	private static void prefetch(Queries queries, Class<?> clazz, List<Object> objects, String[] only, int depth) throws InterruptedException {
+		Session session = queries.session;
+		ClassMetadata meta = session.getSessionFactory().getClassMetadata(clazz);
+		if (meta == null) {
+			return;
+		}
+		List<String> fields = Arrays.asList(only);
+		for (Field field : ReflectionUtil.getAllFields(clazz)) {
+			// Same rules as the mappers
+			if (field.isAnnotationPresent(Transient.class) || (fields.isEmpty() ? field.isAnnotationPresent(ElasticSearchIgnore.class) : !fields.contains(field.getName()))) {
+				continue;
+			}
+			Type type;
+			try {
+				type = meta.getPropertyType(field.getName());
+			} catch (HibernateException e) {
+				// Not persistent
+				continue;
+			}
+
+			List<Object> targets;
+			if (type.isCollectionType()) {
+				targets = fetchCollections(queries, meta, objects, field);
+			} else if (type.isEntityType()) {
+				targets = fetchReferences(queries, objects, field);
+			} else {
+				continue;
+			}
+
+			ElasticSearchEmbedded embed = field.getAnnotation(ElasticSearchEmbedded.class);
+			if (embed != null && depth < MAX_DEPTH) {
+				for (Map.Entry<Class<?>, List<Object>> entry : byClass(targets).entrySet()) {
+					prefetch(queries, entry.getKey(), entry.getValue(), embed.fields(), depth + 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Initializes a collection of all objects by fetch joining it
+	 *
+	 * @return the elements of the collections
+	 */
+	private static List<Object> fetchCollections(Queries queries, ClassMetadata meta, List<Object> objects, Field field) throws InterruptedException {
+		Session session = queries.session;
+		List<Object> ids = new ArrayList<Object>();
+		for (Object object : objects) {
+			Object value = ReflectionUtil.getFieldValue(object, field);
+			if (value != null && !Hibernate.isInitialized(value) && session.contains(object)) {
+				ids.add(session.getIdentifier(object));
+			}
+		}
+		String query = "select distinct e from " + meta.getEntityName() + " e left join fetch e." + field.getName() + " where e." + meta.getIdentifierPropertyName() + " in (:ids)";
+		for (int i = 0; i < ids.size(); i += MAX_IDS) {
+			queries.run(session.createQuery(query).setParameterList("ids", ids.subList(i, Math.min(ids.size(), i + MAX_IDS))));
+		}
+
+		List<Object> elements = new ArrayList<Object>();
+		for (Object object : objects) {
+			Object value = ReflectionUtil.getFieldValue(object, field);
+			if (value instanceof Collection<?> && Hibernate.isInitialized(value)) {
+				elements.addAll((Collection<?>) value);
+			}
+		}
+		return elements;
+	}
+
+	/**
+	 * Initializes the referenced objects of all objects by loading them by id
+	 *
+	 * @return the referenced objects
+	 */
+	private static List<Object> fetchReferences(Queries queries, List<Object> objects, Field field) throws InterruptedException {
+		Session session = queries.session;
+		Map<String, List<Object>> ids = new LinkedHashMap<String, List<Object>>();
+		List<Object> values = new ArrayList<Object>();
+		for (Object object : objects) {
+			Object value = ReflectionUtil.getFieldValue(object, field);
+			if (value == null) {
+				continue;
+			}
+			values.add(value);
+			if (!Hibernate.isInitialized(value) && value instanceof HibernateProxy) {
+				LazyInitializer initializer = ((HibernateProxy) value).getHibernateLazyInitializer();
+				List<Object> entityIds = ids.get(initializer.getEntityName());
+				if (entityIds == null) {
+					entityIds = new ArrayList<Object>();
+					ids.put(initializer.getEntityName(), entityIds);
+				}
+				entityIds.add(initializer.getIdentifier());
+			}
+		}
+
+		for (Map.Entry<String, List<Object>> entry : ids.entrySet()) {
+			ClassMetadata target = session.getSessionFactory().getClassMetadata(entry.getKey());
+			String query = "select t from " + entry.getKey() + " t where t." + target.getIdentifierPropertyName() + " in (:ids)";
+			List<Object> entityIds = entry.getValue();
+			for (int i = 0; i < entityIds.size(); i += MAX_IDS) {
+				queries.run(session.createQuery(query).setParameterList("ids", entityIds.subList(i, Math.min(entityIds.size(), i + MAX_IDS))));
+			}
+		}
+
+		// The proxies find their objects in the session now
+		List<Object> targets = new ArrayList<Object>(values.size());
+		for (Object value : values) {
+			Hibernate.initialize(value);
+			targets.add(value instanceof HibernateProxy ? ((HibernateProxy) value).getHibernateLazyInitializer().getImplementation() : value);
+		}
+		return targets;
+	}
+
+	private static Map<Class<?>, List<Object>> byClass(Collection<?> objects) {
+		Map<Class<?>, List<Object>> classes = new LinkedHashMap<Class<?>, List<Object>>();
+		for (Object object : objects) {
+			if (object == null) {
+				continue;
+			}
+			Class<?> clazz = Hibernate.getClass(object);
+			List<Object> list = classes.get(clazz);
+			if (list == null) {
+				list = new ArrayList<Object>();
+				classes.put(clazz, list);
+			}
+			list.add(object);
+		}
+		return classes;
+	}
+
+	/**
+	 * Runs the queries of one prefetch, paced by the rate limiter and counted
+	 */
+	private static class Queries {
+
+		final Session session;
+
+		/** Paces the queries, null for no limit */
+		final RateLimiter limiter;
+
+		/** The number of queries run */
+		int count;
+
+		Queries(Session session, RateLimiter limiter) {
+			this.session = session;
+			this.limiter = limiter;
+		}
+
+		void run(Query query) throws InterruptedException {
+			if (limiter != null) {
+				limiter.acquire(1);
+			}
+			count++;
+			query.list();
+		}
+
+	}
+
+}
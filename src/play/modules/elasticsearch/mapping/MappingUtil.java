@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.math.BigDecimal;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.Validate;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -21,10 +23,17 @@ import play.modules.elasticsearch.util.ExceptionUtil;
 
 public abstract class MappingUtil {
 
+	/** Searchable flag cache, this is checked for every JPA event */
+	private static final ConcurrentMap<Class<?>, Boolean> searchableCache = new ConcurrentHashMap<Class<?>, Boolean>();
+
 	private MappingUtil() {
 		// No public instantiation allowed
 	}
 
+	public static void clearCache() {
+		searchableCache.clear();
+	}
+
 	/**
 	 * Checks if a class is searchable
 	 * 
@@ -33,7 +42,28 @@ public abstract class MappingUtil {
 	 * @return true if searchable, false otherwise
 	 */
 	public static boolean isSearchable(Class<?> clazz) {
-		// TODO Any particular reason not to use clazz.isAnnotationPresent()?
+		if (clazz == null) {
+			return false;
+		}
+
+		Boolean searchable = searchableCache.get(clazz);
+		if (searchable == null) {
+			searchable = Boolean.valueOf(detectSearchable(clazz));
+			searchableCache.put(clazz, searchable);
+		}
+		return searchable.booleanValue();
+	}
+
+	/**
+	 * Detects if a class or one of its superclasses is annotated with ElasticSearchable
+	 * 
+	 * @param clazz
+	 *            the class to check
+	 * @return true if searchable, false otherwise
+	 */
+	private static boolean detectSearchable(Class<?> clazz) {
+		// Annotations are matched by name, since in DEV mode the annotation
+		// class may have been loaded by another classloader
 		while (clazz != null) {
 			// Logger.info("Class: %s", clazz);
 			for (Annotation a : clazz.getAnnotations()) {
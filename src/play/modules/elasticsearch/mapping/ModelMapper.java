@@ -1,6 +1,7 @@
 package play.modules.elasticsearch.mapping;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -43,6 +44,15 @@ public interface ModelMapper<M> {
 	 */
 	public String getDocumentId(M model);
 
+	/**
+	 * Gets the routing value of a document
+	 * 
+	 * @param model
+	 *            the model
+	 * @return the model's routing value, or null if documents are routed by id
+	 */
+	public String getRouting(M model);
+
 	/**
 	 * Adds a mapping for this model to the builder
 	 * 
@@ -63,6 +73,13 @@ public interface ModelMapper<M> {
 	 */
 	public void addModel(M model, XContentBuilder builder) throws IOException;
 
+	/**
+	 * Gets the field mappers used to build documents, in mapping order
+	 * 
+	 * @return the field mappers
+	 */
+	public List<FieldMapper<M>> getFieldMappers();
+
 	/**
 	 * Inflates a new model from a map of values
 	 * 
@@ -3,6 +3,7 @@ package play.modules.elasticsearch.mapping.impl;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -14,6 +15,7 @@ import org.elasticsearch.common.xcontent.XContentBuilder;
 
 import play.db.Model;
 import play.modules.elasticsearch.annotations.ElasticSearchIgnore;
+import play.modules.elasticsearch.annotations.ElasticSearchRouting;
 import play.modules.elasticsearch.annotations.ElasticSearchTtl;
 import play.modules.elasticsearch.annotations.ElasticSearchable;
 import play.modules.elasticsearch.annotations.analysis.ElasticSearchAnalysis;
@@ -22,6 +24,7 @@ import play.modules.elasticsearch.annotations.analysis.ElasticSearchFilter;
 import play.modules.elasticsearch.annotations.analysis.ElasticSearchSetting;
 import play.modules.elasticsearch.mapping.FieldMapper;
 import play.modules.elasticsearch.mapping.MapperFactory;
+import play.modules.elasticsearch.mapping.MappingException;
 import play.modules.elasticsearch.mapping.ModelMapper;
 import play.modules.elasticsearch.util.ReflectionUtil;
 
@@ -46,13 +49,37 @@ public class PlayModelMapper<M extends Model> implements ModelMapper<M> {
 	private final ElasticSearchable meta;
 	private final List<FieldMapper<M>> mapping;
 
+	/** The field to route documents by, null to route by id */
+	private final Field routing;
+
 	public PlayModelMapper(MapperFactory factory, Class<M> clazz) {
 		Validate.notNull(clazz, "Clazz cannot be null");
 		this.clazz = clazz;
 		this.meta = clazz.getAnnotation(ElasticSearchable.class);
 
 		// Create mapping
-		mapping = getMapping(factory, clazz);
+		mapping = Collections.unmodifiableList(getMapping(factory, clazz));
+		routing = getRoutingField(clazz);
+	}
+
+	/**
+	 * Gets the field annotated with {@link ElasticSearchRouting}
+	 * 
+	 * @param clazz
+	 *            the model class
+	 * @return the routing field, or null if there is none
+	 */
+	private static Field getRoutingField(Class<?> clazz) {
+		List<Field> fields = ReflectionUtil.getFieldsWithAnnotation(clazz, ElasticSearchRouting.class);
+		if (fields.size() > 1) {
+			throw new MappingException("Only one field of " + clazz.getName() + " can be annotated with @ElasticSearchRouting");
+		}
+		if (fields.isEmpty()) {
+			return null;
+		}
+		Field field = fields.get(0);
+		field.setAccessible(true);
+		return field;
 	}
 
 	static boolean shouldIgnoreField(Field field) {
@@ -132,6 +159,27 @@ public class PlayModelMapper<M extends Model> implements ModelMapper<M> {
 		return String.valueOf(model._key());
 	}
 
+	@Override
+	public String getRouting(M model) {
+		if (routing == null) {
+			return null;
+		}
+
+		Object value;
+		try {
+			value = routing.get(model);
+		} catch (IllegalAccessException e) {
+			throw new MappingException("Cannot read routing field " + routing, e);
+		}
+		if (value instanceof Model) {
+			value = ((Model) value)._key();
+		}
+		if (value == null) {
+			throw new MappingException("Routing field " + routing.getName() + " of " + model + " is null");
+		}
+		return String.valueOf(value);
+	}
+
 	@Override
 	public void addMapping(XContentBuilder builder) throws IOException {
 		builder.startObject(getTypeName());
@@ -142,6 +190,11 @@ public class PlayModelMapper<M extends Model> implements ModelMapper<M> {
 			builder.field("default", ttlValue);
 			builder.endObject();
 		}
+		if (routing != null) {
+			builder.startObject("_routing");
+			builder.field("required", true);
+			builder.endObject();
+		}
 		
 		builder.startObject("properties");
 
@@ -221,6 +274,11 @@ public class PlayModelMapper<M extends Model> implements ModelMapper<M> {
 		builder.endObject();
 	}
 
+	@Override
+	public List<FieldMapper<M>> getFieldMappers() {
+		return mapping;
+	}
+
 	@Override
 	public M createModel(Map<String, Object> map) {
 		M model = ReflectionUtil.newInstance(clazz);
@@ -1,11 +1,13 @@
 package play.modules.elasticsearch.mapping.impl;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
 
 import play.db.Model;
+import play.modules.elasticsearch.mapping.FieldMapper;
 import play.modules.elasticsearch.mapping.ModelMapper;
 
 /**
@@ -36,6 +38,11 @@ public class UniversalModelMapper implements ModelMapper<Model> {
 		return "_all";
 	}
 
+	@Override
+	public String getRouting(final Model model) {
+		return null;
+	}
+
 	@Override
 	public void addMapping(final XContentBuilder builder) throws IOException {
 		throw new UnsupportedOperationException("Unsupported call to UniversalModelMapper");
@@ -46,6 +53,11 @@ public class UniversalModelMapper implements ModelMapper<Model> {
 		throw new UnsupportedOperationException("Unsupported call to UniversalModelMapper");
 	}
 
+	@Override
+	public List<FieldMapper<Model>> getFieldMappers() {
+		throw new UnsupportedOperationException("Unsupported call to UniversalModelMapper");
+	}
+
 	@Override
 	public Model createModel(final Map<String, Object> map) {
 		throw new UnsupportedOperationException("Model mapping is not supported with UniversalModelMapper");
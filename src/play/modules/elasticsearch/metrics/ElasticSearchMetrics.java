@@ -0,0 +1,273 @@
+package play.modules.elasticsearch.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of indexing metrics, shared by all delivery modes.
+ *
+ * <p>
+ * Latencies are recorded in nanoseconds and reported in milliseconds. The registry is static, so it survives application reloads in DEV mode.
+ */
+public abstract class ElasticSearchMetrics {
+
+	/** Calls to Elastic Search which are timed */
+	public enum Operation {
+		INDEX, UPDATE, DELETE, BULK, SEARCH
+	}
+
+	/** Counters by index type */
+	private static final ConcurrentMap<String, TypeMetrics> types = new ConcurrentHashMap<String, TypeMetrics>();
+
+	/** Search latencies by index type */
+	private static final ConcurrentMap<String, SearchMetrics> searches = new ConcurrentHashMap<String, SearchMetrics>();
+
+	/** Latencies of Elastic Search calls by operation */
+	private static final Map<Operation, Histogram> calls = new EnumMap<Operation, Histogram>(Operation.class);
+	static {
+		for (Operation operation : Operation.values()) {
+			calls.put(operation, new Histogram());
+		}
+	}
+
+	/** Time from the index event to the acknowledgement by Elastic Search */
+	private static final Histogram lag = new Histogram();
+
+	/** Number of documents per batch */
+	private static final Histogram batchSizes = new Histogram();
+
+	/** Events taken on by a handler which sends them from this JVM, and not processed yet */
+	private static final AtomicLong pending = new AtomicLong();
+
+	/** Events processed by the index action */
+	private static final AtomicLong processed = new AtomicLong();
+
+	/** Current bulk size of the indexer */
+	private static volatile int bulkSize;
+
+	/** Current number of bulk requests the indexer may have in flight */
+	private static volatile int bulkConcurrency;
+
+	/** Number of bulk requests the indexer has in flight */
+	private static volatile int bulkInFlight;
+
+	/** Times the indexer backed off because the cluster was overloaded */
+	private static final AtomicLong bulkDecreases = new AtomicLong();
+
+	private ElasticSearchMetrics() {
+		// No public instantiation allowed
+	}
+
+	/**
+	 * Gets the counters of an index type
+	 *
+	 * @param typeName
+	 *            the index type name
+	 * @return the counters
+	 */
+	public static TypeMetrics type(String typeName) {
+		TypeMetrics metrics = types.get(typeName);
+		if (metrics == null) {
+			TypeMetrics created = new TypeMetrics();
+			metrics = types.putIfAbsent(typeName, created);
+			if (metrics == null) {
+				metrics = created;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Gets the search latencies of an index type
+	 *
+	 * @param typeName
+	 *            the index type name, _all for searches across types
+	 * @return the search latencies
+	 */
+	public static SearchMetrics search(String typeName) {
+		SearchMetrics metrics = searches.get(typeName);
+		if (metrics == null) {
+			SearchMetrics created = new SearchMetrics();
+			metrics = searches.putIfAbsent(typeName, created);
+			if (metrics == null) {
+				metrics = created;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Records the duration of a call to Elastic Search
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param nanos
+	 *            the duration
+	 */
+	public static void recordCall(Operation operation, long nanos) {
+		calls.get(operation).record(nanos);
+	}
+
+	/**
+	 * Records the number of documents in a batch
+	 */
+	public static void recordBatch(int size) {
+		batchSizes.record(size);
+	}
+
+	/**
+	 * Records the current limits of the indexer
+	 *
+	 * @param size
+	 *            the bulk size
+	 * @param concurrency
+	 *            the number of bulk requests allowed in flight
+	 * @param inFlight
+	 *            the number of bulk requests in flight
+	 */
+	public static void recordBulkLimits(int size, int concurrency, int inFlight) {
+		bulkSize = size;
+		bulkConcurrency = concurrency;
+		bulkInFlight = inFlight;
+	}
+
+	/**
+	 * Counts a decrease of the indexer limits
+	 */
+	public static void bulkLimitDecreased() {
+		bulkDecreases.incrementAndGet();
+	}
+
+	/**
+	 * Counts an event taken on by a handler which sends it from this JVM. Handlers which pass events on, e.g. to
+	 * RabbitMQ or the outbox table, do not count them, the JVM which sends them does.
+	 */
+	public static void eventQueued() {
+		pending.incrementAndGet();
+	}
+
+	/**
+	 * Counts an event processed by the index action
+	 *
+	 * @param timestamp
+	 *            the time the event was created at, in milliseconds
+	 * @param acknowledged
+	 *            true if Elastic Search acknowledged the write, which records the event lag
+	 */
+	public static void eventProcessed(long timestamp, boolean acknowledged) {
+		processed.incrementAndGet();
+		pending.decrementAndGet();
+		if (acknowledged) {
+			lag.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - timestamp));
+		}
+	}
+
+	/**
+	 * Gets the number of events which handlers of this JVM took on but did not process yet
+	 */
+	public static long getQueueDepth() {
+		return pending.get();
+	}
+
+	/**
+	 * Gets the latencies of a call to Elastic Search
+	 */
+	public static Histogram getCalls(Operation operation) {
+		return calls.get(operation);
+	}
+
+	public static Histogram getLag() {
+		return lag;
+	}
+
+	public static Histogram getBatchSizes() {
+		return batchSizes;
+	}
+
+	/**
+	 * Gets the counters of all index types
+	 */
+	public static Map<String, TypeMetrics> getTypes() {
+		return new TreeMap<String, TypeMetrics>(types);
+	}
+
+	/**
+	 * Gets the search latencies of all index types
+	 */
+	public static Map<String, SearchMetrics> getSearches() {
+		return new TreeMap<String, SearchMetrics>(searches);
+	}
+
+	/**
+	 * Gets all metrics as a flat map, e.g. for JMX or the admin page
+	 *
+	 * @return metric values by name, in a stable order
+	 */
+	public static Map<String, Object> snapshot() {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("queue.depth", getQueueDepth());
+		values.put("events.processed", processed.get());
+		for (Map.Entry<String, TypeMetrics> type : getTypes().entrySet()) {
+			String prefix = "type." + type.getKey() + ".";
+			values.put(prefix + "indexed", type.getValue().getIndexed());
+			values.put(prefix + "deleted", type.getValue().getDeleted());
+			values.put(prefix + "failed", type.getValue().getFailed());
+			values.put(prefix + "skipped", type.getValue().getSkipped());
+			values.put(prefix + "retried", type.getValue().getRetried());
+		}
+		for (Operation operation : Operation.values()) {
+			addLatencies(values, "latency." + operation.name().toLowerCase(), calls.get(operation));
+		}
+		addLatencies(values, "lag", lag);
+		for (Map.Entry<String, SearchMetrics> search : getSearches().entrySet()) {
+			String prefix = "search." + search.getKey() + ".";
+			values.put(prefix + "slow", search.getValue().getSlow());
+			for (SearchMetrics.Phase phase : SearchMetrics.Phase.values()) {
+				addLatencies(values, prefix + phase.name().toLowerCase(), search.getValue().get(phase));
+			}
+		}
+		values.put("batch.count", batchSizes.getCount());
+		values.put("batch.mean", batchSizes.getMean());
+		values.put("batch.max", batchSizes.getMax());
+		values.put("bulk.size", bulkSize);
+		values.put("bulk.concurrency", bulkConcurrency);
+		values.put("bulk.inFlight", bulkInFlight);
+		values.put("bulk.decreases", bulkDecreases.get());
+		return values;
+	}
+
+	private static void addLatencies(Map<String, Object> values, String prefix, Histogram histogram) {
+		values.put(prefix + ".count", histogram.getCount());
+		values.put(prefix + ".p50.ms", toMillis(histogram.getPercentile(0.5)));
+		values.put(prefix + ".p99.ms", toMillis(histogram.getPercentile(0.99)));
+		values.put(prefix + ".p999.ms", toMillis(histogram.getPercentile(0.999)));
+		values.put(prefix + ".max.ms", toMillis(histogram.getMax()));
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1000000d;
+	}
+
+	/**
+	 * Forgets all metrics
+	 */
+	public static void reset() {
+		types.clear();
+		searches.clear();
+		for (Histogram histogram : calls.values()) {
+			histogram.reset();
+		}
+		lag.reset();
+		batchSizes.reset();
+		// The queue depth is a gauge of events still pending, not a metric to forget
+		processed.set(0);
+		bulkDecreases.set(0);
+	}
+
+}
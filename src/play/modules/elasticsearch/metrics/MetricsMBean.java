@@ -0,0 +1,92 @@
+package play.modules.elasticsearch.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import play.Logger;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * Read-only JMX view of {@link ElasticSearchMetrics}. Every metric of the snapshot is an attribute, so index types show
+ * up as soon as they are used.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+	/** The JMX name of the metrics */
+	public static final String NAME = "play.modules.elasticsearch:type=Metrics";
+
+	/**
+	 * Registers the metrics with the platform MBean server, unless already registered
+	 */
+	public static void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new MetricsMBean(), name);
+			}
+		} catch (Exception e) {
+			Logger.warn("Cannot register Elastic Search metrics with JMX: %s", ExceptionUtil.getStackTrace(e));
+		}
+	}
+
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Map<String, Object> values = ElasticSearchMetrics.snapshot();
+		if (!values.containsKey(attribute)) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return values.get(attribute);
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Object> values = ElasticSearchMetrics.snapshot();
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			if (values.containsKey(attribute)) {
+				list.add(new Attribute(attribute, values.get(attribute)));
+			}
+		}
+		return list;
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Object> value : ElasticSearchMetrics.snapshot().entrySet()) {
+			attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(), value.getKey(), true, false, false));
+		}
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Forgets all metrics", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+		return new MBeanInfo(getClass().getName(), "Elastic Search indexing metrics", attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[] { reset }, null);
+	}
+
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Elastic Search metrics are read-only");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		if ("reset".equals(actionName)) {
+			ElasticSearchMetrics.reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName), "Unknown operation " + actionName);
+	}
+
+}
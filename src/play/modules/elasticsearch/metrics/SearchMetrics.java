@@ -0,0 +1,66 @@
+package play.modules.elasticsearch.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Search latencies of a single index type, split into the phases of a query
+ */
+public class SearchMetrics {
+
+	/** The phases of a query */
+	public enum Phase {
+		/** Building the request */
+		BUILD,
+		/** Time spent by Elastic Search, as reported in the response */
+		TOOK,
+		/** Round trip time not spent by Elastic Search, including (de)serialization */
+		NETWORK,
+		/** Transforming hits into results, without hydration */
+		TRANSFORM,
+		/** Loading hydrated entities from the database */
+		HYDRATION,
+		/** The whole query */
+		TOTAL
+	}
+
+	private final Map<Phase, Histogram> phases = new EnumMap<Phase, Histogram>(Phase.class);
+
+	/** Number of queries over the slow query threshold */
+	private final AtomicLong slow = new AtomicLong();
+
+	public SearchMetrics() {
+		for (Phase phase : Phase.values()) {
+			phases.put(phase, new Histogram());
+		}
+	}
+
+	/**
+	 * Records the duration of a phase
+	 *
+	 * @param phase
+	 *            the phase
+	 * @param nanos
+	 *            the duration
+	 */
+	public void record(Phase phase, long nanos) {
+		phases.get(phase).record(nanos);
+	}
+
+	/**
+	 * Counts a slow query
+	 */
+	public void slow() {
+		slow.incrementAndGet();
+	}
+
+	public Histogram get(Phase phase) {
+		return phases.get(phase);
+	}
+
+	public long getSlow() {
+		return slow.get();
+	}
+
+}
@@ -0,0 +1,70 @@
+package play.modules.elasticsearch.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexing counters of a single index type
+ */
+public class TypeMetrics {
+
+	private final AtomicLong indexed = new AtomicLong();
+
+	private final AtomicLong deleted = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private final AtomicLong skipped = new AtomicLong();
+
+	private final AtomicLong retried = new AtomicLong();
+
+	public void indexed() {
+		indexed.incrementAndGet();
+	}
+
+	public void deleted() {
+		deleted.incrementAndGet();
+	}
+
+	/**
+	 * Counts a write which failed for good, after all retries
+	 */
+	public void failed() {
+		failed.incrementAndGet();
+	}
+
+	/**
+	 * Counts a failed write which is retried
+	 */
+	public void retried() {
+		retried.incrementAndGet();
+	}
+
+	/**
+	 * Counts a write which was not sent, e.g. because the document was unchanged or a newer version was indexed
+	 * already
+	 */
+	public void skipped() {
+		skipped.incrementAndGet();
+	}
+
+	public long getIndexed() {
+		return indexed.get();
+	}
+
+	public long getDeleted() {
+		return deleted.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	public long getRetried() {
+		return retried.get();
+	}
+
+}
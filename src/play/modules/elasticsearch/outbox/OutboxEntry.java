@@ -0,0 +1,60 @@
+package play.modules.elasticsearch.outbox;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+
+/**
+ * An index event waiting in the outbox table. Only the document is recorded, the relay loads its current state when
+ * it sends the event.
+ */
+@Entity(name = "ElasticSearchOutboxEntry")
+@Table(name = "elasticsearch_outbox")
+public class OutboxEntry {
+
+	@Id
+	@GeneratedValue
+	public Long id;
+
+	/** The index type of the model */
+	@Column(nullable = false)
+	public String type;
+
+	/** The document id */
+	@Column(nullable = false)
+	public String documentId;
+
+	/** The routing value, null if the model is routed by id */
+	public String routing;
+
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false, length = 6)
+	public Type operation;
+
+	/** When the event happened, in milliseconds */
+	public long created;
+
+	/** When a relay claimed the entry, in milliseconds, null if unclaimed */
+	public Long claimedAt;
+
+	/** The relay which claimed the entry */
+	public String claimedBy;
+
+	/** Number of failed attempts to send the entry */
+	public int attempts;
+
+	/** When the entry may be sent again after a failed attempt, in milliseconds, null if it may be sent right away */
+	public Long notBefore;
+
+	@Override
+	public String toString() {
+		return "OutboxEntry [" + operation + " " + type + "/" + documentId + "]";
+	}
+
+}
@@ -0,0 +1,41 @@
+package play.modules.elasticsearch.outbox;
+
+import play.Logger;
+import play.db.Model;
+import play.db.jpa.JPA;
+import play.modules.elasticsearch.ElasticSearchDeliveryMode;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.IndexEventHandler;
+import play.modules.elasticsearch.mapping.ModelMapper;
+
+/**
+ * Handler which writes index events into the outbox table, in the JPA transaction which changed the model. The events
+ * are committed or rolled back together with the change, and sent to Elastic Search by the {@link OutboxRelayJob}.
+ *
+ * <p>
+ * Events raised outside of a JPA transaction are delivered locally.
+ */
+public class OutboxIndexEventHandler implements IndexEventHandler {
+
+	@Override
+	public void handle(ElasticSearchIndexEvent event) {
+		if (!JPA.isEnabled() || !JPA.isInsideTransaction() || !JPA.em().getTransaction().isActive()) {
+			Logger.warn("No active JPA transaction, delivering %s locally instead of through the outbox", event);
+			ElasticSearchDeliveryMode.LOCAL.getHandler().handle(event);
+			return;
+		}
+
+		Model object = event.getObject();
+		@SuppressWarnings("unchecked")
+		ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(object.getClass());
+		OutboxEntry entry = new OutboxEntry();
+		entry.type = mapper.getTypeName();
+		entry.documentId = mapper.getDocumentId(object);
+		entry.routing = mapper.getRouting(object);
+		entry.operation = event.getType();
+		entry.created = event.getTimestamp();
+		JPA.em().persist(entry);
+	}
+
+}
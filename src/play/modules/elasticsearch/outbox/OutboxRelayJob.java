@@ -0,0 +1,168 @@
+package play.modules.elasticsearch.outbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.persistence.EntityManager;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+import play.Logger;
+import play.Play;
+import play.db.jpa.JPA;
+import play.db.jpa.NoTransaction;
+import play.jobs.Job;
+import play.modules.elasticsearch.DocumentReference;
+import play.modules.elasticsearch.DocumentRelay;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.RetryPolicy;
+import play.modules.elasticsearch.deadletter.DeadLetters;
+import play.modules.elasticsearch.metrics.ElasticSearchMetrics;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * Sends the entries of the outbox table to Elastic Search.
+ *
+ * <p>
+ * Every run claims a batch of entries, sends their documents with the {@link DocumentRelay} and deletes the entries
+ * Elastic Search acknowledged. Failed entries are released and retried by a later run once the backoff of the
+ * {@link play.modules.elasticsearch.RetryPolicy} passed, so they neither block the entries behind them nor come back
+ * on every claim. Several nodes can relay the same outbox, an entry is claimed by one of them at a time, and claims
+ * of nodes which died are taken over once they time out. Delivery is at least once.
+ *
+ * <p>
+ * The {@link NoTransaction} annotation keeps the JPAPlugin out of the way, the relay manages its own entity manager
+ * and transactions.
+ */
+@NoTransaction
+public class OutboxRelayJob extends Job<Void> {
+
+	/** Identifies the claims of this node */
+	private static final String RELAY_ID = UUID.randomUUID().toString();
+
+	/** Only one relay runs at a time in this JVM */
+	private static final Object lock = new Object();
+
+	/** Maximum number of entries sent in one bulk request */
+	private final int batchSize;
+
+	/** Time after which claimed entries are considered abandoned, in milliseconds */
+	private final long claimTimeout;
+
+	public OutboxRelayJob() {
+		this.batchSize = Integer.parseInt(Play.configuration.getProperty("elasticsearch.outbox.batchSize", "500"));
+		this.claimTimeout = TimeValue.parseTimeValue(Play.configuration.getProperty("elasticsearch.outbox.claimTimeout"), TimeValue.timeValueMinutes(5)).millis();
+	}
+
+	/**
+	 * Relays batches until the outbox is drained, or until a batch failed
+	 *
+	 * @see play.jobs.Job#doJob()
+	 */
+	@Override
+	public void doJob() {
+		try {
+			while (relay() == batchSize) {
+				// Keep going while there is a backlog and Elastic Search takes it, the next run tries again otherwise
+			}
+		} catch (Throwable t) {
+			Logger.error("Elastic Search outbox relay failed: %s", ExceptionUtil.getStackTrace(t));
+		}
+	}
+
+	/**
+	 * Claims a batch of outbox entries and sends them to Elastic Search
+	 *
+	 * @return the number of entries which are done, i.e. sent or moved to the dead letters. Less than the number of
+	 *         entries claimed if some failed.
+	 */
+	public int relay() {
+		synchronized (lock) {
+			EntityManager em = JPA.newEntityManager();
+			try {
+				List<OutboxEntry> entries = claim(em);
+				return entries.isEmpty() ? 0 : send(em, entries);
+			} finally {
+				if (em.getTransaction().isActive()) {
+					em.getTransaction().rollback();
+				}
+				em.close();
+			}
+		}
+	}
+
+	/**
+	 * Claims the oldest unclaimed or abandoned entries whose backoff passed. Rows claimed concurrently by another node
+	 * are skipped by the conditional update.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<OutboxEntry> claim(EntityManager em) {
+		long now = System.currentTimeMillis();
+		Long expired = Long.valueOf(now - claimTimeout);
+
+		em.getTransaction().begin();
+		List<Long> ids = em
+				.createQuery("select e.id from ElasticSearchOutboxEntry e where (e.claimedAt is null or e.claimedAt < :expired) and (e.notBefore is null or e.notBefore <= :now) order by e.id")
+				.setParameter("expired", expired).setParameter("now", Long.valueOf(now)).setMaxResults(batchSize).getResultList();
+		if (ids.isEmpty()) {
+			em.getTransaction().commit();
+			return new ArrayList<OutboxEntry>();
+		}
+		em.createQuery("update ElasticSearchOutboxEntry e set e.claimedBy = :relay, e.claimedAt = :now where e.id in (:ids) and (e.claimedAt is null or e.claimedAt < :expired)")
+				.setParameter("relay", RELAY_ID).setParameter("now", Long.valueOf(now)).setParameter("ids", ids).setParameter("expired", expired).executeUpdate();
+		em.getTransaction().commit();
+
+		return em.createQuery("select e from ElasticSearchOutboxEntry e where e.claimedBy = :relay and e.claimedAt = :now order by e.id")
+				.setParameter("relay", RELAY_ID).setParameter("now", Long.valueOf(now)).getResultList();
+	}
+
+	/**
+	 * Sends the claimed entries as one bulk request, deletes the finished entries and releases the failed ones until
+	 * their backoff passed. Entries which are out of attempts move to the dead letters.
+	 *
+	 * @return the number of finished entries
+	 */
+	private int send(EntityManager em, List<OutboxEntry> entries) {
+		List<DocumentReference> references = new ArrayList<DocumentReference>(entries.size());
+		for (OutboxEntry entry : entries) {
+			references.add(new DocumentReference(entry.type, entry.documentId, entry.routing, entry.operation, entry.created));
+			ElasticSearchMetrics.eventQueued();
+		}
+
+		em.getTransaction().begin();
+		boolean[] done = DocumentRelay.send(em, references);
+		RetryPolicy retryPolicy = ElasticSearchPlugin.getRetryPolicy();
+		int maxAttempts = retryPolicy.getMaxAttempts();
+		long now = System.currentTimeMillis();
+		List<Long> finished = new ArrayList<Long>();
+		int failed = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			OutboxEntry entry = entries.get(i);
+			if (done[i]) {
+				finished.add(entry.id);
+				ElasticSearchMetrics.eventProcessed(entry.created, true);
+			} else if (entry.attempts + 1 >= maxAttempts) {
+				DeadLetters.store(references.get(i), entry.attempts + 1, "Relayed from the outbox without success");
+				finished.add(entry.id);
+				ElasticSearchMetrics.eventProcessed(entry.created, false);
+			} else {
+				// Released when the transaction commits, with a backoff of its own
+				entry.attempts++;
+				entry.claimedBy = null;
+				entry.claimedAt = null;
+				entry.notBefore = Long.valueOf(now + retryPolicy.getBackoff(entry.attempts));
+				failed++;
+				ElasticSearchMetrics.eventProcessed(entry.created, false);
+			}
+		}
+
+		if (!finished.isEmpty()) {
+			em.createQuery("delete from ElasticSearchOutboxEntry e where e.id in (:ids)").setParameter("ids", finished).executeUpdate();
+		}
+		em.getTransaction().commit();
+		Logger.debug("Elastic Search outbox: relayed %d entries, %d failed", Integer.valueOf(finished.size()), Integer.valueOf(failed));
+		return finished.size();
+	}
+
+}
@@ -2,7 +2,7 @@ package play.modules.elasticsearch.rabbitmq;
 
 import play.Logger;
 import akka.actor.UntypedActor;
-import play.modules.elasticsearch.ElasticSearchIndexAction;
+import play.modules.elasticsearch.ElasticSearchDeliveryMode;
 import play.modules.elasticsearch.ElasticSearchIndexEvent;
 
 
@@ -26,9 +26,8 @@ public class RabbitMQConsumerActor extends UntypedActor {
 			// Get Index Event
 			ElasticSearchIndexEvent indexEvent = (ElasticSearchIndexEvent)o;
 			
-			// Fire Index Action
-			ElasticSearchIndexAction indexAction = new ElasticSearchIndexAction();
-			indexAction.invoke(indexEvent);
+			// Send it before the next message is taken, consumed events are never parked in an in-memory queue
+			ElasticSearchDeliveryMode.SYNCHRONOUS.getHandler().handle(indexEvent);
 			
 		} else {
 			// Log Debug
@@ -28,6 +28,18 @@ import play.modules.elasticsearch.search.SearchResults;
  */
 public class JPATransformer<T extends Model> implements Transformer<T> {
 
+	/** Time spent loading entities from the database */
+	private long hydrationNanos = 0;
+
+	/**
+	 * Gets the time spent loading entities from the database by the last transformation
+	 * 
+	 * @return the time in nanoseconds
+	 */
+	public long getHydrationNanos() {
+		return hydrationNanos;
+	}
+
 	/**
 	 * To search results.
 	 * 
@@ -103,11 +115,13 @@ public class JPATransformer<T extends Model> implements Transformer<T> {
 		List<T> objects = new ArrayList<T>();
 
 		// iterate over all models
+		long start = System.nanoTime();
 		for (Entry<Class<T>, List<Object>> entry : allIds.entrySet()) {
 			// get all ids for the model
 			List<T> modelObjects = loadFromDb(entry.getKey(), entry.getValue());
 			objects.addAll(modelObjects);
 		}
+		hydrationNanos = System.nanoTime() - start;
 
 		sortByOrder(objects, order);
 
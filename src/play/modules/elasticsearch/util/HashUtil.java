@@ -0,0 +1,65 @@
+package play.modules.elasticsearch.util;
+
+import org.elasticsearch.common.bytes.BytesReference;
+
+/**
+ * Fast, non-cryptographic hashing of serialized documents (64 bit FNV-1a)
+ */
+public abstract class HashUtil {
+
+	/** The FNV-1a 64 bit offset basis. */
+	private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	/** The FNV-1a 64 bit prime. */
+	private static final long PRIME = 0x100000001b3L;
+
+	private HashUtil() {
+		// No public instantiation allowed
+	}
+
+	/**
+	 * Hashes a range of bytes
+	 *
+	 * @param bytes
+	 *            the bytes
+	 * @param offset
+	 *            the offset to start at
+	 * @param length
+	 *            the number of bytes to hash
+	 * @return the hash
+	 */
+	public static long hash(byte[] bytes, int offset, int length) {
+		long hash = OFFSET_BASIS;
+		for (int i = offset; i < offset + length; i++) {
+			hash ^= (bytes[i] & 0xff);
+			hash *= PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Hashes a byte array
+	 *
+	 * @param bytes
+	 *            the bytes
+	 * @return the hash
+	 */
+	public static long hash(byte[] bytes) {
+		return hash(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Hashes a {@link BytesReference}, avoiding a copy where possible
+	 *
+	 * @param bytes
+	 *            the bytes
+	 * @return the hash
+	 */
+	public static long hash(BytesReference bytes) {
+		if (bytes.hasArray()) {
+			return hash(bytes.array(), bytes.arrayOffset(), bytes.length());
+		}
+		return hash(bytes.toBytes());
+	}
+
+}
@@ -0,0 +1,55 @@
+package play.modules.elasticsearch.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces callers to a number of permits per second. The first permits are granted right away, every later call waits
+ * until the permits before it have been paid for.
+ */
+public class RateLimiter {
+
+	/** Permits per second, 0 for no limit */
+	private final double rate;
+
+	/** The time the next permit is granted at, in nanoseconds */
+	private long next = System.nanoTime();
+
+	/**
+	 * Instantiates a new rate limiter.
+	 *
+	 * @param rate
+	 *            permits per second, 0 for no limit
+	 */
+	public RateLimiter(double rate) {
+		this.rate = rate;
+	}
+
+	/**
+	 * Waits until the permits are granted
+	 *
+	 * @param permits
+	 *            the number of permits
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public void acquire(int permits) throws InterruptedException {
+		if (rate <= 0) {
+			return;
+		}
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			long granted = now - next > 0 ? now : next;
+			next = granted + (long) (permits * TimeUnit.SECONDS.toNanos(1) / rate);
+			wait = granted - now;
+		}
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+}
@@ -0,0 +1,54 @@
+package bulk;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.AdaptiveBulkLimit;
+import play.test.UnitTest;
+
+public class AdaptiveBulkLimitTest extends UnitTest {
+
+	@Test
+	public void testGrowsBulkSizeThenConcurrency() throws InterruptedException {
+		AdaptiveBulkLimit limit = new AdaptiveBulkLimit(100, 100, 300, 2, 10000);
+		for (int i = 0; i < 2; i++) {
+			limit.completed(limit.acquire(), limit.getBulkSize(), 0);
+		}
+		assertEquals(300, limit.getBulkSize());
+		assertEquals(1, limit.getConcurrency());
+
+		limit.completed(limit.acquire(), 300, 0);
+		assertEquals(2, limit.getConcurrency());
+		limit.completed(limit.acquire(), 300, 0);
+		assertEquals(2, limit.getConcurrency());
+	}
+
+	@Test
+	public void testPartialBulksDoNotGrow() throws InterruptedException {
+		AdaptiveBulkLimit limit = new AdaptiveBulkLimit(100, 100, 300, 2, 10000);
+		limit.completed(limit.acquire(), 50, 0);
+		assertEquals(100, limit.getBulkSize());
+		assertEquals(1, limit.getConcurrency());
+	}
+
+	@Test
+	public void testRejectionsHalveOncePerOverload() throws InterruptedException {
+		AdaptiveBulkLimit limit = new AdaptiveBulkLimit(10, 400, 400, 4, 10000);
+		for (int i = 0; i < 3; i++) {
+			limit.completed(limit.acquire(), 400, 0);
+		}
+		assertEquals(4, limit.getConcurrency());
+
+		// Both bulks were in flight when the cluster pushed back
+		long first = limit.acquire();
+		long second = limit.acquire();
+		limit.completed(first, 400, 3);
+		limit.completed(second, 400, 5);
+		assertEquals(200, limit.getBulkSize());
+		assertEquals(2, limit.getConcurrency());
+
+		limit.completed(limit.acquire(), 200, 1);
+		assertEquals(100, limit.getBulkSize());
+		assertEquals(1, limit.getConcurrency());
+	}
+
+}
@@ -0,0 +1,68 @@
+package client;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.client.NodeLatency;
+import play.test.UnitTest;
+
+public class NodeLatencyTest extends UnitTest {
+
+	@Test
+	public void testFasterNodesGetMoreRequests() {
+		NodeLatency slow = new NodeLatency("slow:9300", null);
+		NodeLatency fast = new NodeLatency("fast:9300", null);
+		slow.record(20000000);
+		fast.record(2000000);
+
+		// Ten times as fast, ten times the requests, but the slow node is not starved
+		int chosen = count(fast, Arrays.asList(slow, fast), 10000);
+		assertTrue(chosen > 8800 && chosen < 9400);
+	}
+
+	@Test
+	public void testUnhealthyNodesAreAvoided() {
+		NodeLatency first = new NodeLatency("first:9300", null);
+		NodeLatency second = new NodeLatency("second:9300", null);
+		first.record(1000000);
+		second.record(5000000);
+
+		first.failed();
+		assertEquals(0, count(first, Arrays.asList(first, second), 1000));
+
+		// Back in rotation once it answers again
+		first.record(1000000);
+		assertTrue(count(first, Arrays.asList(first, second), 1000) > 0);
+
+		// With no healthy node, all nodes are used
+		first.failed();
+		second.failed();
+		assertTrue(count(second, Arrays.asList(first, second), 1000) > 0);
+	}
+
+	@Test
+	public void testUnmeasuredNodesAreTried() {
+		NodeLatency measured = new NodeLatency("measured:9300", null);
+		NodeLatency added = new NodeLatency("added:9300", null);
+		measured.record(1000000);
+
+		// As likely as the fastest node
+		int chosen = count(added, Arrays.asList(measured, added), 10000);
+		assertTrue(chosen > 4500 && chosen < 5500);
+	}
+
+	private static int count(NodeLatency node, List<NodeLatency> nodes, int requests) {
+		Random random = new Random(42);
+		int chosen = 0;
+		for (int i = 0; i < requests; i++) {
+			if (NodeLatency.choose(nodes, random) == node) {
+				chosen++;
+			}
+		}
+		return chosen;
+	}
+
+}
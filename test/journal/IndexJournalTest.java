@@ -0,0 +1,159 @@
+package journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import play.db.jpa.Model;
+import play.modules.elasticsearch.DocumentReference;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.annotations.ElasticSearchRouting;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+import play.modules.elasticsearch.journal.IndexJournal;
+import play.test.UnitTest;
+
+public class IndexJournalTest extends UnitTest {
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class Journaled extends Model {
+
+		@ElasticSearchRouting
+		public String tenant;
+
+		public Journaled(long id, String tenant) {
+			this.id = Long.valueOf(id);
+			this.tenant = tenant;
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class Unrouted extends Model {
+
+		public Unrouted(long id) {
+			this.id = Long.valueOf(id);
+		}
+
+	}
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("journal", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testUnacknowledgedEventsAreReplayed() throws IOException {
+		IndexJournal journal = new IndexJournal(directory, 4096);
+		journal.append(new ElasticSearchIndexEvent(new Journaled(1, "a"), Type.INDEX));
+		journal.append(new ElasticSearchIndexEvent(new Journaled(2, "b"), Type.INDEX));
+		journal.append(new ElasticSearchIndexEvent(new Unrouted(3), Type.DELETE));
+		journal.acknowledge(1, true);
+
+		journal = new IndexJournal(directory, 4096);
+		assertTrue(journal.isReplaying());
+		List<DocumentReference> replayed = journal.readReplay(100);
+		assertEquals(2, replayed.size());
+		assertEquals("2", replayed.get(0).getDocumentId());
+		assertEquals("b", replayed.get(0).getRouting());
+		assertEquals(Type.INDEX, replayed.get(0).getOperation());
+		assertEquals("3", replayed.get(1).getDocumentId());
+		assertNull(replayed.get(1).getRouting());
+		assertEquals(Type.DELETE, replayed.get(1).getOperation());
+		assertTrue(journal.readReplay(100).isEmpty());
+		journal.replayed(true);
+
+		journal = new IndexJournal(directory, 4096);
+		assertFalse(journal.isReplaying());
+		assertTrue(journal.readReplay(100).isEmpty());
+	}
+
+	@Test
+	public void testEventsAppendedDuringReplayAreKept() throws IOException {
+		IndexJournal journal = new IndexJournal(directory, 4096);
+		journal.append(new ElasticSearchIndexEvent(new Journaled(1, "a"), Type.INDEX));
+
+		journal = new IndexJournal(directory, 4096);
+		journal.append(new ElasticSearchIndexEvent(new Journaled(2, "a"), Type.INDEX));
+		journal.append(new ElasticSearchIndexEvent(new Journaled(3, "a"), Type.INDEX));
+		journal.acknowledge(1, true);
+		assertEquals(1, journal.readReplay(100).size());
+		journal.replayed(true);
+
+		journal = new IndexJournal(directory, 4096);
+		List<DocumentReference> replayed = journal.readReplay(100);
+		assertEquals(1, replayed.size());
+		assertEquals("3", replayed.get(0).getDocumentId());
+	}
+
+	@Test
+	public void testFailureDoesNotHoldCheckpoint() throws IOException {
+		IndexJournal journal = new IndexJournal(directory, 4096);
+		journal.append(new ElasticSearchIndexEvent(new Journaled(1, "a"), Type.INDEX));
+		journal.append(new ElasticSearchIndexEvent(new Journaled(2, "a"), Type.INDEX));
+		journal.append(new ElasticSearchIndexEvent(new Journaled(3, "a"), Type.INDEX));
+		journal.acknowledge(1, false);
+		journal.acknowledge(1, true);
+
+		journal = new IndexJournal(directory, 4096);
+		List<DocumentReference> replayed = journal.readReplay(100);
+		assertEquals(1, replayed.size());
+		assertEquals("3", replayed.get(0).getDocumentId());
+	}
+
+	@Test
+	public void testFailedReplayHoldsCheckpoint() throws IOException {
+		IndexJournal journal = new IndexJournal(directory, 4096);
+		journal.append(new ElasticSearchIndexEvent(new Journaled(1, "a"), Type.INDEX));
+
+		journal = new IndexJournal(directory, 4096);
+		journal.append(new ElasticSearchIndexEvent(new Journaled(2, "a"), Type.INDEX));
+		journal.readReplay(100);
+		journal.replayed(false);
+		journal.acknowledge(1, true);
+
+		journal = new IndexJournal(directory, 4096);
+		assertEquals(2, journal.readReplay(100).size());
+	}
+
+	@Test
+	public void testSegmentsRollAndAreTruncated() throws IOException {
+		IndexJournal journal = new IndexJournal(directory, 256);
+		for (int i = 0; i < 100; i++) {
+			journal.append(new ElasticSearchIndexEvent(new Journaled(i, "tenant"), Type.INDEX));
+		}
+		assertTrue(directory.list().length > 10);
+
+		journal = new IndexJournal(directory, 256);
+		List<DocumentReference> replayed = journal.readReplay(1000);
+		assertEquals(100, replayed.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(String.valueOf(i), replayed.get(i).getDocumentId());
+		}
+		journal.replayed(true);
+
+		// Only the checkpoint and the current segment are left
+		assertEquals(2, directory.list().length);
+	}
+
+}
@@ -0,0 +1,90 @@
+package lanes;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Priority;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.db.jpa.Model;
+import play.modules.elasticsearch.IndexLanes;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+import play.test.UnitTest;
+
+public class IndexLanesTest extends UnitTest {
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class Laned extends Model {
+
+		public Laned(long id) {
+			this.id = Long.valueOf(id);
+		}
+
+	}
+
+	@Test
+	public void testLiveEventsGoFirst() throws InterruptedException {
+		IndexLanes lanes = new IndexLanes(100, 100);
+		lanes.configure(0, 0);
+		lanes.put(batch(Priority.REINDEX));
+		lanes.put(batch(Priority.REINDEX));
+		lanes.put(batch(Priority.LIVE));
+
+		List<ElasticSearchIndexEvent> bulk = lanes.take(10);
+		assertEquals(1, bulk.size());
+		assertEquals(Priority.LIVE, bulk.get(0).getPriority());
+		bulk = lanes.take(10);
+		assertEquals(2, bulk.size());
+		assertEquals(Priority.REINDEX, bulk.get(0).getPriority());
+	}
+
+	@Test
+	public void testReindexGetsATurnAfterLiveRun() throws InterruptedException {
+		IndexLanes lanes = new IndexLanes(100, 100);
+		lanes.configure(2, 0);
+		lanes.put(batch(Priority.REINDEX));
+		for (int i = 0; i < 3; i++) {
+			lanes.put(batch(Priority.LIVE));
+		}
+
+		assertEquals(Priority.LIVE, lanes.take(1).get(0).getPriority());
+		assertEquals(Priority.LIVE, lanes.take(1).get(0).getPriority());
+		assertEquals(Priority.REINDEX, lanes.take(1).get(0).getPriority());
+		assertEquals(Priority.LIVE, lanes.take(1).get(0).getPriority());
+	}
+
+	@Test
+	public void testReindexRate() throws InterruptedException {
+		IndexLanes lanes = new IndexLanes(100, 100);
+		lanes.configure(0, 20);
+		lanes.put(batch(Priority.REINDEX));
+		lanes.put(batch(Priority.REINDEX));
+
+		lanes.take(1);
+		long start = System.currentTimeMillis();
+		lanes.take(1);
+		assertTrue(System.currentTimeMillis() - start >= 40);
+	}
+
+	@Test
+	public void testLiveEventDropsOlderReindexEvent() throws InterruptedException {
+		IndexLanes lanes = new IndexLanes(100, 100);
+		lanes.configure(0, 0);
+		lanes.put(Collections.singletonList(new ElasticSearchIndexEvent(new Laned(1), Type.INDEX, false, Priority.REINDEX)));
+		lanes.put(Collections.singletonList(new ElasticSearchIndexEvent(new Laned(2), Type.INDEX, false, Priority.REINDEX)));
+		lanes.put(Collections.singletonList(new ElasticSearchIndexEvent(new Laned(1), Type.DELETE)));
+
+		assertEquals(Priority.LIVE, lanes.take(10).get(0).getPriority());
+		List<ElasticSearchIndexEvent> bulk = lanes.take(10);
+		assertEquals(1, bulk.size());
+		assertEquals(Long.valueOf(2), ((Laned) bulk.get(0).getObject()).id);
+	}
+
+	private static List<ElasticSearchIndexEvent> batch(Priority priority) {
+		return Collections.singletonList(new ElasticSearchIndexEvent(null, Type.INDEX, false, priority));
+	}
+
+}
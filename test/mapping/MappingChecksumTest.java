@@ -0,0 +1,63 @@
+package mapping;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Test;
+
+import play.db.jpa.Model;
+import play.modules.elasticsearch.adapter.MappingChecksum;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+import play.modules.elasticsearch.mapping.ModelMapper;
+
+public class MappingChecksumTest extends MappingTest {
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class TestModel extends Model {
+
+		public String name;
+
+	}
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class OtherModel extends Model {
+
+		public int count;
+
+	}
+
+	@Test
+	public void testChecksumIsStable() throws IOException {
+		ModelMapper<TestModel> mapper = getMapper(TestModel.class);
+
+		assertEquals(MappingChecksum.of(mapper), MappingChecksum.of(mapper));
+		assertFalse(MappingChecksum.of(mapper).equals(MappingChecksum.of(getMapper(OtherModel.class))));
+	}
+
+	@Test
+	public void testMappingCurrent() throws IOException {
+		ModelMapper<TestModel> mapper = getMapper(TestModel.class);
+		MappingChecksum checksum = MappingChecksum.of(mapper);
+
+		// A mapping put from the checksum is current
+		MappingMetaData applied = metaData(mapper.getTypeName(), checksum);
+		assertTrue(checksum.isMappingCurrent(applied));
+		assertFalse(checksum.isSettingsChanged(applied));
+
+		// A mapping of another model, or without checksum, is not
+		ModelMapper<OtherModel> other = getMapper(OtherModel.class);
+		assertFalse(checksum.isMappingCurrent(metaData(mapper.getTypeName(), MappingChecksum.of(other))));
+		assertFalse(checksum.isMappingCurrent(null));
+		assertFalse(checksum.isSettingsChanged(null));
+	}
+
+	private static MappingMetaData metaData(String typeName, MappingChecksum checksum) throws IOException {
+		Map<String, Object> source = XContentHelper.convertToMap(checksum.getMapping().bytes(), true).v2();
+		return new MappingMetaData(typeName, source);
+	}
+
+}
@@ -0,0 +1,120 @@
+package mapping;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.junit.Test;
+
+import play.db.jpa.Model;
+import play.modules.elasticsearch.annotations.ElasticSearchRouting;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+import play.modules.elasticsearch.mapping.MappingException;
+import play.modules.elasticsearch.mapping.ModelMapper;
+
+public class RoutingTest extends MappingTest {
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class Tenant extends Model {
+
+		public String name;
+
+	}
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class RoutedByValue extends Model {
+
+		@ElasticSearchRouting
+		public String tenant;
+
+	}
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class RoutedByReference extends Model {
+
+		@ElasticSearchRouting
+		public Tenant tenant;
+
+	}
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class RoutedTwice extends Model {
+
+		@ElasticSearchRouting
+		public String tenant;
+
+		@ElasticSearchRouting
+		public String region;
+
+	}
+
+	@Test
+	public void testRoutingRequiredInMapping() throws IOException {
+		ModelMapper<RoutedByValue> mapper = getMapper(RoutedByValue.class);
+
+		// Get generated mapping
+		XContentBuilder generatedMapping = mappingFor(mapper);
+
+		// Build mapping locally for verification
+		XContentBuilder mapping = builder();
+		mapping.startObject();
+		mapping.startObject(mapper.getTypeName());
+		mapping.startObject("_routing");
+		mapping.field("required", true);
+		mapping.endObject();
+		mapping.startObject("properties");
+
+		// Order matters, see AbstractFieldMapper
+		mapping.startObject("tenant");
+		mapping.field("type", "string");
+		mapping.endObject();
+
+		mapping.startObject("id");
+		mapping.field("type", "long");
+		mapping.endObject();
+
+		mapping.endObject();
+
+		mapping.endObject();
+		mapping.endObject();
+
+		assertEquals(mapping.string(), generatedMapping.string());
+	}
+
+	@Test
+	public void testRoutingValue() {
+		RoutedByValue model = new RoutedByValue();
+		model.tenant = "acme";
+
+		assertEquals("acme", getMapper(RoutedByValue.class).getRouting(model));
+	}
+
+	@Test
+	public void testRoutingByReferencedKey() {
+		Tenant tenant = new Tenant();
+		tenant.id = 7L;
+		RoutedByReference model = new RoutedByReference();
+		model.tenant = tenant;
+
+		assertEquals("7", getMapper(RoutedByReference.class).getRouting(model));
+	}
+
+	@Test
+	public void testNoRouting() {
+		assertNull(getMapper(Tenant.class).getRouting(new Tenant()));
+	}
+
+	@Test(expected = MappingException.class)
+	public void testMissingRoutingValue() {
+		getMapper(RoutedByValue.class).getRouting(new RoutedByValue());
+	}
+
+	@Test(expected = MappingException.class)
+	public void testSingleRoutingField() {
+		getMapper(RoutedTwice.class);
+	}
+
+}
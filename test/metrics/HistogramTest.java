@@ -0,0 +1,58 @@
+package metrics;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.metrics.Histogram;
+import play.test.UnitTest;
+
+public class HistogramTest extends UnitTest {
+
+	@Test
+	public void testEmpty() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(0.99));
+	}
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		assertWithin(500000, histogram.getPercentile(0.5));
+		assertWithin(990000, histogram.getPercentile(0.99));
+		assertWithin(999000, histogram.getPercentile(0.999));
+		assertEquals(1000000, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void testSmallValuesAreExact() {
+		Histogram histogram = new Histogram();
+		histogram.record(3);
+		histogram.record(5);
+		histogram.record(-1);
+
+		assertEquals(0, histogram.getPercentile(0.1));
+		assertEquals(3, histogram.getPercentile(0.5));
+		assertEquals(5, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void testReset() {
+		Histogram histogram = new Histogram();
+		histogram.record(42);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+	}
+
+	/** Buckets are 1/8 of a power of two wide */
+	private static void assertWithin(long expected, long actual) {
+		assertTrue("Expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.125);
+	}
+
+}
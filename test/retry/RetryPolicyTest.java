@@ -0,0 +1,45 @@
+package retry;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.transport.RemoteTransportException;
+import org.junit.Test;
+
+import play.modules.elasticsearch.RetryPolicy;
+import play.test.UnitTest;
+
+public class RetryPolicyTest extends UnitTest {
+
+	@Test
+	public void testTransientFailuresAreRetryable() {
+		assertTrue(RetryPolicy.isRetryable(new EsRejectedExecutionException("queue full")));
+		assertTrue(RetryPolicy.isRetryable(new NoNodeAvailableException("no node")));
+		assertTrue(RetryPolicy.isRetryable(new RemoteTransportException("remote", new EsRejectedExecutionException("queue full"))));
+		assertTrue(RetryPolicy.isRetryable(RestStatus.TOO_MANY_REQUESTS));
+		assertTrue(RetryPolicy.isRetryable(RestStatus.SERVICE_UNAVAILABLE));
+	}
+
+	@Test
+	public void testPermanentFailuresAreNotRetryable() {
+		assertFalse(RetryPolicy.isRetryable(new ElasticsearchParseException("bad document")));
+		assertFalse(RetryPolicy.isRetryable(new IllegalStateException()));
+		assertFalse(RetryPolicy.isRetryable(RestStatus.BAD_REQUEST));
+		assertFalse(RetryPolicy.isRetryable(RestStatus.CONFLICT));
+	}
+
+	@Test
+	public void testBackoffGrowsWithJitter() {
+		RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+		for (int i = 0; i < 100; i++) {
+			long first = policy.getBackoff(1);
+			assertTrue(first >= 50 && first <= 100);
+			long third = policy.getBackoff(3);
+			assertTrue(third >= 200 && third <= 400);
+			long capped = policy.getBackoff(40);
+			assertTrue(capped >= 500 && capped <= 1000);
+		}
+	}
+
+}
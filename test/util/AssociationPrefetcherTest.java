@@ -0,0 +1,134 @@
+package util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.collection.PersistentBag;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.Type;
+import org.junit.Test;
+
+import play.modules.elasticsearch.mapping.AssociationPrefetcher;
+import play.modules.elasticsearch.util.RateLimiter;
+import play.test.UnitTest;
+
+public class AssociationPrefetcherTest extends UnitTest {
+
+	public static class Parent {
+
+		public Long id;
+
+		/** Not initialized, like a lazy collection of a loaded entity */
+		@SuppressWarnings("unchecked")
+		public Collection<Object> children = new PersistentBag();
+
+		public Parent(long id) {
+			this.id = Long.valueOf(id);
+		}
+
+		public Long getId() {
+			return id;
+		}
+
+		public Collection<Object> getChildren() {
+			return children;
+		}
+
+	}
+
+	@Test
+	public void testQueriesAreCountedAndPaced() throws InterruptedException {
+		List<Parent> parents = new ArrayList<Parent>();
+		for (int i = 0; i < 1200; i++) {
+			parents.add(new Parent(i));
+		}
+		List<String> queries = new ArrayList<String>();
+
+		// 500 ids per query, the first permit is granted right away and every further one waits 50 ms
+		long start = System.currentTimeMillis();
+		assertEquals(3, AssociationPrefetcher.prefetch(entityManager(queries), parents, new RateLimiter(20)));
+		assertTrue(System.currentTimeMillis() - start >= 90);
+		assertEquals(3, queries.size());
+		assertTrue(queries.get(0).contains("left join fetch e.children"));
+	}
+
+	@Test
+	public void testUnpacedPrefetchCountsQueries() {
+		List<String> queries = new ArrayList<String>();
+		assertEquals(1, AssociationPrefetcher.prefetch(entityManager(queries), Collections.singletonList(new Parent(1))));
+		assertEquals(0, AssociationPrefetcher.prefetch(entityManager(queries), Collections.emptyList()));
+	}
+
+	/**
+	 * Stubs an entity manager whose session maps the children of Parent as a collection and records the queries
+	 */
+	private static EntityManager entityManager(final List<String> queries) {
+		final Type collection = stub(Type.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return Boolean.valueOf("isCollectionType".equals(method.getName()));
+			}
+		});
+		final ClassMetadata meta = stub(ClassMetadata.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if ("getPropertyType".equals(method.getName())) {
+					if (!"children".equals(args[0])) {
+						throw new org.hibernate.HibernateException("Not persistent: " + args[0]);
+					}
+					return collection;
+				}
+				return "getEntityName".equals(method.getName()) ? Parent.class.getName() : "id";
+			}
+		});
+		final SessionFactory factory = stub(SessionFactory.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return meta;
+			}
+		});
+		final Session session = stub(Session.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if ("getSessionFactory".equals(name)) {
+					return factory;
+				}
+				if ("contains".equals(name)) {
+					return Boolean.TRUE;
+				}
+				if ("getIdentifier".equals(name)) {
+					return ((Parent) args[0]).id;
+				}
+				queries.add((String) args[0]);
+				return stub(Query.class, new InvocationHandler() {
+					@Override
+					public Object invoke(Object query, Method method, Object[] args) {
+						return "list".equals(method.getName()) ? Collections.emptyList() : query;
+					}
+				});
+			}
+		});
+		return stub(EntityManager.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return session;
+			}
+		});
+	}
+
+	private static <T> T stub(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(AssociationPrefetcherTest.class.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+}
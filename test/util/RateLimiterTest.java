@@ -0,0 +1,33 @@
+package util;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.util.RateLimiter;
+import play.test.UnitTest;
+
+public class RateLimiterTest extends UnitTest {
+
+	@Test
+	public void testUnlimited() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(0);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 1000; i++) {
+			limiter.acquire(1000);
+		}
+		assertTrue(System.currentTimeMillis() - start < 100);
+	}
+
+	@Test
+	public void testPacesPermits() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(1000);
+		long start = System.currentTimeMillis();
+		// The first 100 permits are granted right away, every further 100 wait 100 ms
+		limiter.acquire(100);
+		limiter.acquire(100);
+		limiter.acquire(100);
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(elapsed >= 190);
+		assertTrue(elapsed < 1000);
+	}
+
+}
@@ -0,0 +1,28 @@
+package versioning;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.DocumentReference;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.ElasticSearchVersioning;
+import play.test.UnitTest;
+
+public class DeleteVersionTest extends UnitTest {
+
+	@Test
+	public void testCapturedVersionIsKept() {
+		DocumentReference reference = new DocumentReference("user", "1", null, Type.DELETE, 1000L, Long.valueOf(7));
+		assertNull(ElasticSearchVersioning.NONE.getDeleteVersion(reference));
+		assertEquals(Long.valueOf(7), ElasticSearchVersioning.FIELD.getDeleteVersion(reference));
+		assertEquals(Long.valueOf(7), ElasticSearchVersioning.TIMESTAMP.getDeleteVersion(reference));
+	}
+
+	@Test
+	public void testTimestampWithoutCapturedVersion() {
+		DocumentReference reference = new DocumentReference("user", "1", null, Type.DELETE, 1000L);
+		assertNull(ElasticSearchVersioning.NONE.getDeleteVersion(reference));
+		assertNull(ElasticSearchVersioning.FIELD.getDeleteVersion(reference));
+		assertEquals(Long.valueOf(1000), ElasticSearchVersioning.TIMESTAMP.getDeleteVersion(reference));
+	}
+
+}